@@ -0,0 +1,28 @@
+package ru.gb.java3.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+//запуск замеров. результаты пишутся в JSON, чтобы сравнивать прогоны между собой
+//аргументы: [регулярное выражение для отбора замеров] [файл результатов]
+public class BenchmarkApp {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length >= 1 ? args[0] : BenchmarkApp.class.getPackage().getName() + "\\..*";
+        String result = args.length >= 2 ? args[1]
+                : "benchmarks-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json";
+        Options options = new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result)
+                .build();
+        new Runner(options).run();
+        System.out.println("Результаты: " + result);
+    }
+}
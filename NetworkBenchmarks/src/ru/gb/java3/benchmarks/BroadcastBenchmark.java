@@ -0,0 +1,47 @@
+package ru.gb.java3.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.gb.java3.clientserver.Command;
+import ru.gb.java3.clientserver.CommandType;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+//рассылка NetworkServer.broadcastMessage всем клиентам: одно кодирование и обход реестра
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    @Param({"10", "1000", "10000"})
+    public int clients;
+
+    private ServerFixture fixture;
+    private Command message;
+    private Command userList;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = new ServerFixture(clients);
+        message = SampleCommands.of(CommandType.MESSAGE);
+        userList = SampleCommands.of(CommandType.UPDATE_USER_LIST);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void message() throws IOException {
+        fixture.server.broadcastMessage(message, null);
+    }
+
+    //крупный кадр: цена кодирования почти не зависит от числа получателей
+    @Benchmark
+    public void userList() throws IOException {
+        fixture.server.broadcastMessage(userList, null);
+    }
+}
@@ -0,0 +1,97 @@
+package ru.gb.java3.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.gb.java3.clientserver.Command;
+import ru.gb.java3.clientserver.CommandType;
+import ru.gb.java3.clientserver.codec.CommandCodec;
+import ru.gb.java3.clientserver.codec.FrameCompression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+//кодирование и разбор команды каждого типа: бинарный кодек протокола, он же со сжатием,
+//и сериализация Java, которой команды передавались раньше (Command по-прежнему Serializable)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"AUTH", "AUTH_ERROR", "PRIVATE_MESSAGE", "BROADCAST_MESSAGE", "MESSAGE", "UPDATE_USER_LIST",
+            "ERROR", "END", "CHANGE_NICK", "USER_JOINED", "USER_LEFT", "USER_RENAMED", "HISTORY_REQUEST",
+            "HISTORY_PAGE", "CAPABILITIES", "ROOM_JOIN", "ROOM_LEAVE", "ROOM_MESSAGE", "ROOM_MEMBERS"})
+    public String type;
+
+    private Command command;
+    private byte[] body; //кадр без заголовка длины, как его отдает транспорт
+    private byte[] compressedBody; //сжатый кадр без заголовка, если команда сжимается
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() throws IOException {
+        command = SampleCommands.of(CommandType.valueOf(type));
+        body = stripHeader(CommandCodec.encode(command));
+        byte[] compressed = FrameCompression.compress(CommandCodec.encode(command));
+        compressedBody = compressed == null ? body : stripHeader(compressed);
+        serialized = serialize(command);
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return CommandCodec.encode(command);
+    }
+
+    @Benchmark
+    public Command binaryDecode() throws IOException {
+        return CommandCodec.decode(body, 0, body.length);
+    }
+
+    //для малых команд совпадает с binaryEncode: они не сжимаются
+    @Benchmark
+    public byte[] compressedEncode() {
+        byte[] frame = CommandCodec.encode(command);
+        byte[] compressed = FrameCompression.compress(frame);
+        return compressed == null ? frame : compressed;
+    }
+
+    @Benchmark
+    public Command compressedDecode() throws IOException {
+        return CommandCodec.decode(compressedBody, 0, compressedBody.length);
+    }
+
+    @Benchmark
+    public byte[] serializationEncode() throws IOException {
+        return serialize(command);
+    }
+
+    @Benchmark
+    public Object serializationDecode() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        }
+    }
+
+    private static byte[] serialize(Command command) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(command);
+        }
+        return bytes.toByteArray();
+    }
+
+    //заголовок - varint длины тела
+    private static byte[] stripHeader(byte[] frame) {
+        int header = 1;
+        while (CommandCodec.headerLength(frame.length - header) != header) {
+            header++;
+        }
+        byte[] body = new byte[frame.length - header];
+        System.arraycopy(frame, header, body, 0, body.length);
+        return body;
+    }
+}
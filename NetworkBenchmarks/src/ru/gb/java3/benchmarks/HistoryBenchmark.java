@@ -0,0 +1,72 @@
+package ru.gb.java3.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.gb.java3.client.model.HistoryReader;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//загрузка локальной истории при входе, как в ClientController.loadChatHistoryByID:
+//открыть файл и прочитать последнюю страницу. для сравнения - чтение файла целиком
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"10000", "1000000"})
+    public int lines;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("bench-history", ".txt");
+        file.deleteOnExit();
+        try (BufferedWriter out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < lines; i++) {
+                out.write("nick" + (i % 50) + ": сообщение номер " + i + ", немного текста для длины строки");
+                out.write('\n');
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public List<String> lastPage() throws IOException {
+        try (HistoryReader reader = new HistoryReader(file)) {
+            return reader.readOlder(PAGE_SIZE);
+        }
+    }
+
+    //прокрутка на десять страниц вверх
+    @Benchmark
+    public int scrollBack() throws IOException {
+        int total = 0;
+        try (HistoryReader reader = new HistoryReader(file)) {
+            for (int i = 0; i < 10 && reader.hasOlder(); i++) {
+                total += reader.readOlder(PAGE_SIZE).size();
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public List<String> readWholeFile() throws IOException {
+        List<String> all = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        return new ArrayList<>(all.subList(Math.max(0, all.size() - PAGE_SIZE), all.size()));
+    }
+}
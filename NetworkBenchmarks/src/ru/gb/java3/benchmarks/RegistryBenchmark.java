@@ -0,0 +1,66 @@
+package ru.gb.java3.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.gb.java3.clientserver.Command;
+import ru.gb.java3.clientserver.CommandType;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//обращения к реестру клиентов при разном числе пользователей в чате
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int users;
+
+    private ServerFixture fixture;
+    private String[] nicks;
+    private Command message;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = new ServerFixture(users);
+        nicks = SampleCommands.nicks(users).toArray(new String[0]);
+        message = SampleCommands.of(CommandType.MESSAGE);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    //ники перебираются по кругу, чтобы не мерить один и тот же горячий элемент
+    private String nextNick() {
+        String nick = nicks[next];
+        next = next + 1 == nicks.length ? 0 : next + 1;
+        return nick;
+    }
+
+    @Benchmark
+    public boolean isNickBusy() {
+        return fixture.server.isNickBusy(nextNick());
+    }
+
+    @Benchmark
+    public boolean isNickBusyMiss() {
+        return fixture.server.isNickBusy("absent");
+    }
+
+    @Benchmark
+    public void sendMessage() throws IOException {
+        fixture.server.sendMessage(nextNick(), message);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<String> getAllUserNames() {
+        return fixture.server.getAllUserNames();
+    }
+}
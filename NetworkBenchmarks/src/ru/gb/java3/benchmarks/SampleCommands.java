@@ -0,0 +1,82 @@
+package ru.gb.java3.benchmarks;
+
+import ru.gb.java3.clientserver.Command;
+import ru.gb.java3.clientserver.CommandType;
+import ru.gb.java3.clientserver.command.CapabilitiesCommand;
+import ru.gb.java3.clientserver.command.HistoryMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//типичная команда каждого типа. списки - в размере, который реально ходит по сети:
+//состав чата при входе и полная страница истории
+final class SampleCommands {
+    static final int USER_LIST_SIZE = 1000;
+    static final int HISTORY_PAGE_SIZE = 100;
+    private static final String TEXT = "Привет всем! Как дела? Hello, world — обычное сообщение чата средней длины.";
+
+    private SampleCommands() {
+    }
+
+    static Command of(CommandType type) {
+        switch (type) {
+            case AUTH:
+                return Command.authCommand("login42", "pass42");
+            case AUTH_ERROR:
+                return Command.authErrorCommand("Неверный логин или пароль");
+            case PRIVATE_MESSAGE:
+                return Command.privateMessageCommand("nick42", TEXT);
+            case BROADCAST_MESSAGE:
+                return Command.broadcastMessage(TEXT);
+            case MESSAGE:
+                return Command.messageCommand("nick42", TEXT);
+            case UPDATE_USER_LIST:
+                return Command.updateUsersListCommand(nicks(USER_LIST_SIZE));
+            case ERROR:
+                return Command.errorCommand("Пользователь не в чате");
+            case END:
+                return Command.endCommand();
+            case CHANGE_NICK:
+                return Command.changeNickCommand("login42", "pass42", "newNick42");
+            case USER_JOINED:
+                return Command.userJoinedCommand("nick42");
+            case USER_LEFT:
+                return Command.userLeftCommand("nick42");
+            case USER_RENAMED:
+                return Command.userRenamedCommand("nick42", "newNick42");
+            case HISTORY_REQUEST:
+                return Command.historyRequestCommand("nick7", 123456789L, 1600000000000L, true, HISTORY_PAGE_SIZE);
+            case HISTORY_PAGE:
+                return Command.historyPageCommand("nick7", historyPage(), 123456689L);
+            case CAPABILITIES:
+                return Command.capabilitiesCommand(CapabilitiesCommand.COMPRESSION);
+            case ROOM_JOIN:
+                return Command.roomJoinCommand("dev", "nick42");
+            case ROOM_LEAVE:
+                return Command.roomLeaveCommand("dev", "nick42");
+            case ROOM_MESSAGE:
+                return Command.roomMessageCommand("dev", "nick42", TEXT);
+            case ROOM_MEMBERS:
+                return Command.roomMembersCommand("dev", nicks(50));
+            default:
+                throw new IllegalArgumentException("Нет образца для " + type);
+        }
+    }
+
+    static List<String> nicks(int count) {
+        List<String> nicks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            nicks.add("nick" + i);
+        }
+        return nicks;
+    }
+
+    private static List<HistoryMessage> historyPage() {
+        List<HistoryMessage> messages = new ArrayList<>(HISTORY_PAGE_SIZE);
+        for (int i = 0; i < HISTORY_PAGE_SIZE; i++) {
+            messages.add(new HistoryMessage(123456789L - i, 1600000000000L - i * 1000L,
+                    "nick" + (i % 7), i % 3 == 0 ? "nick7" : null, TEXT));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,65 @@
+package ru.gb.java3.benchmarks;
+
+import ru.gb.java3.clientserver.codec.Frame;
+import ru.gb.java3.server.NetworkServer;
+import ru.gb.java3.server.ServerConfig;
+import ru.gb.java3.server.client.ClientHandler;
+import ru.gb.java3.server.transport.ClientConnection;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+//сервер без сети с уже авторизованными клиентами. кадры клиентов только считаются,
+//так что замер видит работу сервера, а не сокеты
+final class ServerFixture {
+    final NetworkServer server;
+    private final Path authDirectory;
+
+    ServerFixture(int clientCount) throws IOException {
+        authDirectory = Files.createTempDirectory("bench-auth");
+        ServerConfig config = new ServerConfig()
+                .setAuthBackend("embedded")
+                .setEmbeddedDirectory(authDirectory.toString())
+                .setEmbeddedSeedUsers(0)
+                .setHistoryEnabled(false);
+        server = new NetworkServer(0, config);
+        //авторизация асинхронная и идет через базу, поэтому клиенты входят напрямую
+        for (int i = 0; i < clientCount; i++) {
+            ClientHandler client = new ClientHandler(server, new CountingConnection());
+            if (!client.signIn(i + 1, "nick" + i)) {
+                throw new IllegalStateException("Ник занят: nick" + i);
+            }
+        }
+    }
+
+    void close() throws IOException {
+        server.shutdown();
+        //сервис аутентификации не запускается, поэтому каталог остается пустым
+        Files.delete(authDirectory);
+    }
+
+    private static final class CountingConnection implements ClientConnection {
+        long bytes;
+
+        @Override
+        public void send(Frame frame) {
+            bytes += frame.length();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "bench";
+        }
+
+        @Override
+        public InetAddress getRemoteHost() {
+            return null;
+        }
+    }
+}
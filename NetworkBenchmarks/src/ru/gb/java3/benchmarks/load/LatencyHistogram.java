@@ -0,0 +1,73 @@
+package ru.gb.java3.benchmarks.load;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+//гистограмма задержек в наносекундах с логарифмическими корзинами, как в HdrHistogram:
+//в каждой степени двойки 64 корзины, погрешность значения меньше 1,6%.
+//запись без блокировок из любого числа потоков
+final class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_COUNT = SUB_COUNT / 2;
+    private static final int MAX_MAGNITUDE = 40 - SUB_BITS + 1; //до 2^40 нс, около 18 минут
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_COUNT + MAX_MAGNITUDE * HALF_COUNT);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        total.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    long count() {
+        return total.sum();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    double mean() {
+        long count = total.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    //наибольшее значение, не превышенное percentile процентами записей (с точностью корзины)
+    long percentile(double percentile) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    //до SUB_COUNT - по корзине на значение, дальше в каждой степени двойки HALF_COUNT корзин
+    private static int indexOf(long value) {
+        int magnitude = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        if (magnitude > MAX_MAGNITUDE) {
+            return SUB_COUNT + MAX_MAGNITUDE * HALF_COUNT - 1;
+        }
+        return (int) (magnitude * HALF_COUNT + (value >>> magnitude));
+    }
+
+    private static long highestValueAt(int index) {
+        int magnitude = index < SUB_COUNT ? 0 : (index - SUB_COUNT) / HALF_COUNT + 1;
+        long sub = index - magnitude * HALF_COUNT;
+        return ((sub + 1) << magnitude) - 1;
+    }
+}
@@ -0,0 +1,102 @@
+package ru.gb.java3.benchmarks.load;
+
+//настройки нагрузочного прогона, задаются через -Dload.*
+final class LoadConfig {
+    private int users = 1000; //сессий, логины loginN/passN начиная с firstUser
+    private int firstUser = 1;
+    private int connectThreads = 32; //параллельных подключений при старте
+    private int senders = 4; //потоков, отправляющих сообщения по расписанию
+    private int rate = 500; //сообщений в секунду от всех сессий вместе
+    private int warmupSeconds = 5; //задержки в это время не учитываются
+    private int durationSeconds = 30;
+    private int drainSeconds = 3; //ожидание доставки последних сообщений
+    private int messageLength = 100; //длина текста сообщения вместе с меткой
+    private boolean compression = false; //предлагать серверу сжатие кадров
+    //доли видов трафика: broadcast, private, смена ника
+    private int broadcastWeight = 80;
+    private int privateWeight = 15;
+    private int nickWeight = 5;
+
+    static LoadConfig fromSystemProperties() {
+        LoadConfig config = new LoadConfig();
+        config.users = intProperty("load.users", config.users);
+        config.firstUser = intProperty("load.first", config.firstUser);
+        config.connectThreads = intProperty("load.connect.threads", config.connectThreads);
+        config.senders = intProperty("load.senders", config.senders);
+        config.rate = intProperty("load.rate", config.rate);
+        config.warmupSeconds = intProperty("load.warmup", config.warmupSeconds);
+        config.durationSeconds = intProperty("load.duration", config.durationSeconds);
+        config.drainSeconds = intProperty("load.drain", config.drainSeconds);
+        config.messageLength = intProperty("load.message.length", config.messageLength);
+        config.compression = Boolean.parseBoolean(System.getProperty("load.compression", String.valueOf(config.compression)));
+        config.broadcastWeight = intProperty("load.mix.broadcast", config.broadcastWeight);
+        config.privateWeight = intProperty("load.mix.private", config.privateWeight);
+        config.nickWeight = intProperty("load.mix.nick", config.nickWeight);
+        return config;
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Некорректное значение " + name + "=" + value + ", используется " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    int getUsers() {
+        return users;
+    }
+
+    int getFirstUser() {
+        return firstUser;
+    }
+
+    int getConnectThreads() {
+        return connectThreads;
+    }
+
+    int getSenders() {
+        return senders;
+    }
+
+    int getRate() {
+        return rate;
+    }
+
+    int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    int getDrainSeconds() {
+        return drainSeconds;
+    }
+
+    int getMessageLength() {
+        return messageLength;
+    }
+
+    boolean isCompression() {
+        return compression;
+    }
+
+    int getBroadcastWeight() {
+        return broadcastWeight;
+    }
+
+    int getPrivateWeight() {
+        return privateWeight;
+    }
+
+    int getNickWeight() {
+        return nickWeight;
+    }
+}
@@ -0,0 +1,218 @@
+package ru.gb.java3.benchmarks.load;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+//нагрузочный прогон без интерфейса: открывает load.users авторизованных сессий к серверу
+//и шлет по расписанию смесь broadcast, приватов и смен ника. в конце - пропускная способность
+//и перцентили задержек отправка->доставка, подключения и авторизации.
+//время отправки в метке - запланированное, а не фактическое: если отправитель отстал,
+//отставание попадает в задержку, а не прячется (coordinated omission).
+//сервер - с теми же пользователями и без ограничения входов с одного адреса, например:
+//  java -Dchat.embedded.seed=2000 -Dchat.admission.auth.burst=100000 -Dchat.admission.unauth.max=0
+//       ru.gb.java3.server.ServerApp 4050 reactor embedded
+//аргументы: [хост] [порт], остальное - -Dload.* (см. LoadConfig)
+public class LoadGenerator {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private final String host;
+    private final int port;
+    private final LoadConfig config;
+    private final LoadStats stats = new LoadStats();
+    private final List<LoadSession> sessions = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean running;
+
+    public LoadGenerator(String host, int port, LoadConfig config) {
+        this.host = host;
+        this.port = port;
+        this.config = config;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String host = args.length >= 1 ? args[0] : "localhost";
+        int port = args.length >= 2 ? Integer.parseInt(args[1]) : 4050;
+        new LoadGenerator(host, port, LoadConfig.fromSystemProperties()).run();
+    }
+
+    public void run() throws InterruptedException {
+        long connectStart = System.nanoTime();
+        int failed = connectAll();
+        double connectSeconds = (System.nanoTime() - connectStart) / 1e9;
+        System.out.printf("Подключено %d из %d за %.1f с%n", sessions.size(), config.getUsers(), connectSeconds);
+        if (sessions.size() < 2) {
+            System.out.println("Для обмена сообщениями нужно хотя бы две сессии");
+            closeAll();
+            return;
+        }
+        for (LoadSession session : sessions) {
+            session.startReading();
+        }
+
+        running = true;
+        Thread[] senders = new Thread[config.getSenders()];
+        for (int i = 0; i < senders.length; i++) {
+            int sender = i;
+            senders[i] = new Thread(() -> sendLoop(sender, senders.length), "load-sender-" + i);
+            senders[i].start();
+        }
+        long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getWarmupSeconds());
+        stats.startMeasuring(measureStart);
+        long measureEnd = measureStart + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+        while (System.nanoTime() < measureEnd) {
+            TimeUnit.SECONDS.sleep(5);
+            progress(measureStart);
+        }
+        running = false;
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        double measured = (System.nanoTime() - measureStart) / 1e9;
+        TimeUnit.SECONDS.sleep(config.getDrainSeconds());
+        closeAll();
+        report(failed, measured);
+    }
+
+    //параллельное подключение; число неудач
+    private int connectAll() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(config.getConnectThreads());
+        AtomicInteger failed = new AtomicInteger();
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < config.getUsers(); i++) {
+            int user = config.getFirstUser() + i;
+            tasks.add(pool.submit(() -> {
+                LoadSession session = new LoadSession(user, "login" + user, "pass" + user, stats);
+                try {
+                    String error = session.connect(host, port, config.isCompression());
+                    if (error == null) {
+                        sessions.add(session);
+                    } else {
+                        reportFailure(failed, "login" + user + ": " + error);
+                    }
+                } catch (IOException e) {
+                    session.close();
+                    reportFailure(failed, "login" + user + ": " + e);
+                }
+            }));
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+        return failed.get();
+    }
+
+    //первые ошибки печатаются целиком, дальше только считаются
+    private static void reportFailure(AtomicInteger failed, String message) {
+        if (failed.incrementAndGet() <= 10) {
+            System.out.println("Не удалось подключиться: " + message);
+        }
+    }
+
+    //у каждого отправителя свои сессии: в сокет сессии пишет один поток
+    private void sendLoop(int sender, int senderCount) {
+        List<LoadSession> own = new ArrayList<>();
+        LoadSession[] all;
+        synchronized (sessions) {
+            all = sessions.toArray(new LoadSession[0]);
+        }
+        for (int i = sender; i < all.length; i += senderCount) {
+            own.add(all[i]);
+        }
+        if (own.isEmpty()) {
+            return;
+        }
+        int totalWeight = config.getBroadcastWeight() + config.getPrivateWeight() + config.getNickWeight();
+        char[] fill = new char[Math.max(0, config.getMessageLength() - 32)];
+        Arrays.fill(fill, 'x');
+        String padding = new String(fill);
+        long interval = Math.max(1, TimeUnit.SECONDS.toNanos(1) * senderCount / Math.max(1, config.getRate()));
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long next = System.nanoTime();
+        while (running) {
+            long now = System.nanoTime();
+            if (now < next) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+            LoadSession session = own.get(random.nextInt(own.size()));
+            int pick = random.nextInt(Math.max(1, totalWeight));
+            if (pick < config.getBroadcastWeight()) {
+                session.sendBroadcast(next, padding);
+            } else if (pick < config.getBroadcastWeight() + config.getPrivateWeight()) {
+                //любая сессия, кроме отправителя: выпал он сам - берется последняя
+                LoadSession receiver = all[random.nextInt(all.length - 1)];
+                if (receiver == session) {
+                    receiver = all[all.length - 1];
+                }
+                session.sendPrivate(receiver.getNick(), next, padding);
+            } else {
+                session.changeNick(next);
+            }
+            next += interval;
+        }
+    }
+
+    private void progress(long measureStart) {
+        long elapsed = System.nanoTime() - measureStart;
+        System.out.printf("%s %3d с: отправлено %d, доставлено broadcast %d, приватов %d, отключений %d%n",
+                elapsed < 0 ? "разогрев" : "замер", TimeUnit.NANOSECONDS.toSeconds(Math.abs(elapsed)),
+                stats.sentBroadcast.sum() + stats.sentPrivate.sum() + stats.sentNick.sum(),
+                stats.broadcast.count(), stats.privates.count(), stats.disconnects.sum());
+    }
+
+    private void closeAll() {
+        synchronized (sessions) {
+            for (LoadSession session : sessions) {
+                session.close();
+            }
+        }
+    }
+
+    private void report(int failed, double seconds) {
+        int users = sessions.size();
+        System.out.println();
+        System.out.printf("Сессий %d, ошибок входа %d, отключений %d, ошибок отправки %d, ошибок смены ника %d%n",
+                users, failed, stats.disconnects.sum(), stats.sendErrors.sum(), stats.nickErrors.sum());
+        long broadcasts = stats.sentBroadcast.sum();
+        long privates = stats.sentPrivate.sum();
+        long nicks = stats.sentNick.sum();
+        System.out.printf("Замер %.1f с: отправлено %.0f сообщ./с (broadcast %d, приватов %d, смен ника %d)%n",
+                seconds, (broadcasts + privates + nicks) / seconds, broadcasts, privates, nicks);
+        System.out.printf("Доставлено %.0f сообщ./с; broadcast %d из %d ожидаемых, приватов %d из %d%n",
+                (stats.broadcast.count() + stats.privates.count()) / seconds,
+                stats.broadcast.count(), broadcasts * (users - 1), stats.privates.count(), privates);
+        System.out.println();
+        StringBuilder header = new StringBuilder(String.format("%-10s %10s %9s", "мс", "count", "mean"));
+        for (double percentile : PERCENTILES) {
+            header.append(String.format(" %9s", "p" + formatPercentile(percentile)));
+        }
+        header.append(String.format(" %9s", "max"));
+        System.out.println(header);
+        printRow("connect", stats.connect);
+        printRow("auth", stats.auth);
+        printRow("broadcast", stats.broadcast);
+        printRow("private", stats.privates);
+        printRow("nick", stats.nick);
+    }
+
+    private static void printRow(String name, LatencyHistogram histogram) {
+        StringBuilder row = new StringBuilder(String.format("%-10s %10d %9.3f", name, histogram.count(), histogram.mean() / 1e6));
+        for (double percentile : PERCENTILES) {
+            row.append(String.format(" %9.3f", histogram.percentile(percentile) / 1e6));
+        }
+        row.append(String.format(" %9.3f", histogram.max() / 1e6));
+        System.out.println(row);
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile);
+    }
+}
@@ -0,0 +1,182 @@
+package ru.gb.java3.benchmarks.load;
+
+import ru.gb.java3.clientserver.Command;
+import ru.gb.java3.clientserver.CommandType;
+import ru.gb.java3.clientserver.codec.CommandCodec;
+import ru.gb.java3.clientserver.command.AuthCommand;
+import ru.gb.java3.clientserver.command.CapabilitiesCommand;
+import ru.gb.java3.clientserver.command.ChangeNickCommand;
+import ru.gb.java3.clientserver.command.ErrorCommand;
+import ru.gb.java3.clientserver.command.MessageCommand;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+//одна сессия нагрузки: подключение, авторизация, чтение в своем потоке.
+//пишет в сокет только поток-отправитель, за которым закреплена сессия.
+//текст сообщения начинается с метки "lt:<вид>:<время отправки>:", по ней получатель
+//считает задержку. время - System.nanoTime() этого же процесса
+final class LoadSession {
+    static final String STAMP = "lt:";
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final long READER_STACK_SIZE = 256 * 1024;
+
+    private final int index;
+    private final String login;
+    private final String password;
+    private final LoadStats stats;
+    private final AtomicBoolean nickPending = new AtomicBoolean();
+    private volatile String nick;
+    private volatile long nickSentAt;
+    private volatile boolean stopping;
+    private int nickCounter; //только поток-отправитель
+    private Socket socket;
+    private DataInputStream in;
+    private OutputStream out;
+
+    LoadSession(int index, String login, String password, LoadStats stats) {
+        this.index = index;
+        this.login = login;
+        this.password = password;
+        this.stats = stats;
+    }
+
+    //подключение и авторизация с замером времени. null - успех, иначе причина отказа
+    String connect(String host, int port, boolean compression) throws IOException {
+        long start = System.nanoTime();
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+        long connected = System.nanoTime();
+        stats.connect.record(connected - start);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = socket.getOutputStream();
+        if (compression) {
+            CommandCodec.write(out, Command.capabilitiesCommand(CapabilitiesCommand.COMPRESSION));
+        }
+        CommandCodec.write(out, Command.authCommand(login, password));
+        while (true) {
+            Command reply = CommandCodec.read(in);
+            if (reply.getType() == CommandType.AUTH) {
+                stats.auth.record(System.nanoTime() - connected);
+                nick = ((AuthCommand) reply.getData()).getUsername();
+                return null;
+            }
+            if (reply.getType() == CommandType.AUTH_ERROR || reply.getType() == CommandType.ERROR) {
+                close();
+                return ((ErrorCommand) reply.getData()).getErrorMessage();
+            }
+        }
+    }
+
+    void startReading() {
+        Thread reader = new Thread(null, this::readLoop, "load-reader-" + index, READER_STACK_SIZE);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    String getNick() {
+        return nick;
+    }
+
+    void sendBroadcast(long stamp, String padding) {
+        send(Command.broadcastMessage(STAMP + "b:" + stamp + ":" + padding), stamp, stats.sentBroadcast);
+    }
+
+    void sendPrivate(String receiver, long stamp, String padding) {
+        send(Command.privateMessageCommand(receiver, STAMP + "p:" + stamp + ":" + padding), stamp, stats.sentPrivate);
+    }
+
+    //новый ник уникален для сессии; пока сервер не ответил на прошлую смену, новая не отправляется
+    void changeNick(long stamp) {
+        if (!nickPending.compareAndSet(false, true)) {
+            return;
+        }
+        nickSentAt = stamp;
+        send(Command.changeNickCommand(login, password, "lt" + index + "_" + (++nickCounter)), stamp, stats.sentNick);
+    }
+
+    private void send(Command command, long stamp, LongAdder counter) {
+        if (stopping) {
+            return;
+        }
+        try {
+            CommandCodec.write(out, command);
+            if (stats.isMeasured(stamp)) {
+                counter.increment();
+            }
+        } catch (IOException e) {
+            stats.sendErrors.increment();
+        }
+    }
+
+    private void readLoop() {
+        try {
+            while (true) {
+                Command command = CommandCodec.read(in);
+                long now = System.nanoTime();
+                switch (command.getType()) {
+                    case MESSAGE:
+                        onMessage(((MessageCommand) command.getData()).getMessage(), now);
+                        break;
+                    case CHANGE_NICK:
+                        nick = ((ChangeNickCommand) command.getData()).getUsername();
+                        onNickReply(now, false);
+                        break;
+                    case ERROR:
+                        if (nickPending.get()) {
+                            onNickReply(now, true);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            if (!stopping) {
+                stats.disconnects.increment();
+            }
+        }
+    }
+
+    private void onMessage(String text, long now) {
+        if (text == null || !text.startsWith(STAMP)) {
+            return; //системные сообщения сервера
+        }
+        int end = text.indexOf(':', STAMP.length() + 2);
+        long stamp = Long.parseLong(text.substring(STAMP.length() + 2, end));
+        if (!stats.isMeasured(stamp)) {
+            return;
+        }
+        if (text.charAt(STAMP.length()) == 'b') {
+            stats.broadcast.record(now - stamp);
+        } else {
+            stats.privates.record(now - stamp);
+        }
+    }
+
+    private void onNickReply(long now, boolean failed) {
+        long sentAt = nickSentAt;
+        nickPending.set(false);
+        if (failed) {
+            stats.nickErrors.increment();
+        } else if (stats.isMeasured(sentAt)) {
+            stats.nick.record(now - sentAt);
+        }
+    }
+
+    void close() {
+        stopping = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //соединение уже закрыто
+        }
+    }
+}
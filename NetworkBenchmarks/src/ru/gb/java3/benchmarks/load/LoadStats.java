@@ -0,0 +1,30 @@
+package ru.gb.java3.benchmarks.load;
+
+import java.util.concurrent.atomic.LongAdder;
+
+//счетчики и гистограммы прогона. задержки сообщений учитываются, только если
+//сообщение должно было уйти после разогрева
+final class LoadStats {
+    final LatencyHistogram connect = new LatencyHistogram();
+    final LatencyHistogram auth = new LatencyHistogram();
+    final LatencyHistogram broadcast = new LatencyHistogram();
+    final LatencyHistogram privates = new LatencyHistogram();
+    final LatencyHistogram nick = new LatencyHistogram();
+
+    final LongAdder sentBroadcast = new LongAdder();
+    final LongAdder sentPrivate = new LongAdder();
+    final LongAdder sentNick = new LongAdder();
+    final LongAdder nickErrors = new LongAdder();
+    final LongAdder sendErrors = new LongAdder();
+    final LongAdder disconnects = new LongAdder();
+
+    private volatile long measureFrom = Long.MAX_VALUE;
+
+    void startMeasuring(long nanos) {
+        measureFrom = nanos;
+    }
+
+    boolean isMeasured(long stamp) {
+        return stamp >= measureFrom;
+    }
+}
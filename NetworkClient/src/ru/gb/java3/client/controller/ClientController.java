@@ -1,16 +1,26 @@
 package ru.gb.java3.client.controller;
 
+import ru.gb.java3.client.model.HistoryReader;
+import ru.gb.java3.client.model.HistoryWriter;
 import ru.gb.java3.client.model.NetworkService;
 import ru.gb.java3.client.window.AuthDialog;
 import ru.gb.java3.client.window.ChangeNickDialog;
 import ru.gb.java3.client.window.ClientChat;
 import ru.gb.java3.clientserver.Command;
+import ru.gb.java3.clientserver.command.HistoryMessage;
+import ru.gb.java3.clientserver.command.HistoryPageCommand;
 
 import javax.swing.*;
 import java.io.*;
+import java.util.ArrayList;
 import java.util.List;
 
 public class ClientController {
+    private static final int HISTORY_PAGE_SIZE = 100;
+    //история пишется на диск пачками: по 256 строк или раз в полсекунды
+    private static final int HISTORY_FLUSH_LINES = 256;
+    private static final long HISTORY_FLUSH_MILLIS = 500;
+    private static final int HISTORY_MAX_PENDING = 10000;
 
     private final NetworkService networkService;
     private final AuthDialog authDialog;
@@ -19,6 +29,8 @@ public class ClientController {
     private String nick;
 
     private int id;
+    private volatile HistoryReader historyReader;
+    private volatile HistoryWriter historyWriter;
 
     public ClientController(String serverIP, int serverPort){
         this.networkService = new NetworkService(serverIP, serverPort);
@@ -41,8 +53,15 @@ public class ClientController {
                 ClientController.this.setUserName(nick);
                 ClientController.this.setID(id);
                 clientChat.setTitle(nick);
-                clientChat.setChatListField(loadChatHistoryByID());
+                //сначала писатель: он отрезает недописанный после сбоя хвост файла
+                openHistoryWriter();
+                List<String> localHistory = loadChatHistoryByID();
+                clientChat.setChatListField(localHistory);
                 ClientController.this.openChat();
+                //на этой машине истории нет - берем последние сообщения общего чата с сервера
+                if (localHistory.isEmpty()) {
+                    requestServerHistory(null, 0);
+                }
             }
         });
         authDialog.setVisible(true);
@@ -79,31 +98,98 @@ public class ClientController {
 
 
 
-    public void sendAuthMessage(String login, String pass) throws IOException {
-        networkService.sendCommand(Command.authCommand(login, pass));
+    public void sendAuthMessage(String login, String pass) {
+        send(Command.authCommand(login, pass), "Ошибка при аутентификации");
     }
 
-    public void sendChangeNickMessage(String login, String pass, String newNick) throws IOException {
-        networkService.sendCommand(Command.changeNickCommand(login, pass, newNick));
+    public void sendChangeNickMessage(String login, String pass, String newNick) {
+        send(Command.changeNickCommand(login, pass, newNick), "Ошибка смены ника");
     }
 
     public void sendMessageToAll(String message){
-        try {
-            networkService.sendCommand(Command.broadcastMessage(message));
-        } catch (IOException e) {
-            clientChat.showError("Ошибка отправки сообщения");
-            e.printStackTrace();
-        }
+        send(Command.broadcastMessage(message), "Ошибка отправки сообщения");
     }
 
     public void sendPrivateMessage(String username, String message) {
-        try {
-            networkService.sendCommand(Command.privateMessageCommand(username, message));
-        } catch (IOException e) {
-            showErrorMessage(e.getMessage());
+        send(Command.privateMessageCommand(username, message), "Ошибка отправки сообщения");
+    }
+    //команды комнат в строке ввода: /join комната, /leave комната, /room комната текст.
+    //false - строка не команда и уходит обычным сообщением
+    public boolean sendRoomCommand(String line) {
+        String[] parts = line.split("\\s+", 3);
+        switch (parts[0]) {
+            case "/join":
+                if (parts.length > 1) {
+                    send(Command.roomJoinCommand(parts[1], null), "Ошибка входа в комнату");
+                }
+                return true;
+            case "/leave":
+                if (parts.length > 1) {
+                    send(Command.roomLeaveCommand(parts[1], null), "Ошибка выхода из комнаты");
+                }
+                return true;
+            case "/room":
+                if (parts.length > 2) {
+                    clientChat.addMessage(String.format("[%s] Я: %s", parts[1], parts[2]));
+                    send(Command.roomMessageCommand(parts[1], null, parts[2]), "Ошибка отправки сообщения");
+                }
+                return true;
+            default:
+                return false;
         }
     }
+
+    public void roomJoined(String room, List<String> users) {
+        clientChat.addMessage(String.format("[%s] вы в комнате: %s", room, String.join(", ", users)));
+    }
+
+    public void roomUserJoined(String room, String username) {
+        clientChat.addMessage(String.format("[%s] %s вошел в комнату", room, username));
+    }
+
+    public void roomUserLeft(String room, String username) {
+        clientChat.addMessage(username.equals(nick) ? String.format("[%s] вы вышли из комнаты", room)
+                : String.format("[%s] %s вышел из комнаты", room, username));
+    }
+
+    public void roomMessageReceived(String room, String username, String message) {
+        clientChat.addMessage(String.format("[%s] %s: %s", room, username, message));
+    }
+
+    //страница истории с сервера перед сообщением beforeId (0 - самые последние)
+    public void requestServerHistory(String peer, long beforeId) {
+        send(Command.historyRequestCommand(peer, beforeId, 0, true, HISTORY_PAGE_SIZE), "Ошибка запроса истории");
+    }
+
+    //отправка не ждет сеть; о сбое сообщаем в окне, когда он случится
+    private void send(Command command, String errorMessage) {
+        networkService.send(command).whenComplete((ignored, error) -> {
+            if (error != null) {
+                SwingUtilities.invokeLater(() -> showErrorMessage(errorMessage + ": " + error.getMessage()));
+            }
+        });
+    }
+
+    public void historyPageReceived(HistoryPageCommand page) {
+        List<String> lines = new ArrayList<>(page.getMessages().size());
+        for (HistoryMessage message : page.getMessages()) {
+            lines.add(formatHistoryMessage(message));
+        }
+        clientChat.addHistoryPage(lines);
+    }
+
+    private String formatHistoryMessage(HistoryMessage message) {
+        boolean own = message.getSender() != null && message.getSender().equals(nick);
+        if (message.getReceiver() == null) {
+            return (own ? "Я" : message.getSender()) + ": " + message.getMessage();
+        }
+        return own ? String.format("Я приватно %s: %s", message.getReceiver(), message.getMessage())
+                : message.getSender() + ": " + message.getMessage();
+    }
+
     public  void shutdown(){
+        closeHistoryWriter();
+        closeHistoryReader();
         networkService.close();
     }
 
@@ -119,12 +205,27 @@ public class ClientController {
         System.err.println(errorMessage);
     }
 
+    //полный список приходит один раз при входе, дальше только изменения
     public void updateUsersList(List<String> users) {
         users.remove(nick);
         users.add(0, "to All");
         clientChat.updateUsers(users);
     }
 
+    public void userJoined(String username) {
+        if (!username.equals(nick)) {
+            clientChat.addUser(username);
+        }
+    }
+
+    public void userLeft(String username) {
+        clientChat.removeUser(username);
+    }
+
+    public void userRenamed(String oldUsername, String newUsername) {
+        clientChat.renameUser(oldUsername, newUsername);
+    }
+
 
     public int getId() {
         return id;
@@ -134,63 +235,104 @@ public class ClientController {
         this.id = id;
     }
 
-    public DefaultListModel<String> loadChatHistoryByID() {
-        DefaultListModel<String> historyLast100 = new DefaultListModel<>();
-        int numberLastLines = 100;
-
-
+    //последние сообщения из файла истории; файл читается с конца, целиком не загружается
+    public List<String> loadChatHistoryByID() {
+        closeHistoryReader();
         try {
-            BufferedReader reader = new BufferedReader(new FileReader(getLogFile()));
-
-            String[] arr = new String[numberLastLines];
-            //чтение в массив
-            int lastIndex = 0;
-            String string = reader.readLine();
-            while (string != null){
-                if(lastIndex == arr.length){
-                    lastIndex = 0;
-                }
-                arr[lastIndex] = string;
-                lastIndex++;
-                string = reader.readLine();
-            }
-
-            //чтение из массива
-            int i = lastIndex;
-            do {
-                if(i == arr.length){
-                    i = 0;
-                }
-                if(arr[i] != null){
-                    historyLast100.addElement((arr[i]));
-                }
-                i++;
-            } while(i != lastIndex);
+            historyReader = new HistoryReader(getLogFile());
+            return historyReader.readOlder(HISTORY_PAGE_SIZE);
+        } catch (FileNotFoundException e) {
+            System.err.println("Файл не найден");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return new ArrayList<>();
+    }
 
+    public boolean hasOlderChatHistory() {
+        HistoryReader reader = historyReader;
+        return reader != null && reader.hasOlder();
+    }
 
-        reader.close();
+    //следующая страница локальной истории перед уже показанной, пустая - дальше ничего нет
+    public List<String> loadOlderChatHistory() {
+        HistoryReader reader = historyReader;
+        if (reader == null) {
+            return new ArrayList<>();
+        }
+        try {
+            return reader.readOlder(HISTORY_PAGE_SIZE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
 
-        }catch (FileNotFoundException e){
-            System.err.println("Файл не найден");
-        }catch (IOException e){
+    //чат отбросил count самых старых строк файла истории
+    public void chatHistoryTrimmed(int count) {
+        HistoryReader reader = historyReader;
+        if (reader == null || count <= 0) {
+            return;
+        }
+        try {
+            reader.skipLines(count);
+        } catch (IOException e) {
             e.printStackTrace();
         }
+    }
 
+    //чат очищен: очищенные строки уже в файле, чтение начинается заново с его конца,
+    //чтобы обрезка чата отсчитывала строки, показанные после очистки
+    public void chatHistoryCleared() {
+        if (historyReader == null) {
+            return; //до входа в чат истории нет
+        }
+        HistoryWriter writer = historyWriter;
+        if (writer != null) {
+            writer.flush();
+        }
+        closeHistoryReader();
+        try {
+            historyReader = new HistoryReader(getLogFile());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        return historyLast100;
+    private void closeHistoryReader() {
+        if (historyReader != null) {
+            try {
+                historyReader.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            historyReader = null;
+        }
     }
 
+    //строка уходит в файл фоновым потоком; до входа в чат писать некуда
+    public void saveHistory(String message) {
+        HistoryWriter writer = historyWriter;
+        if (writer != null) {
+            writer.append(message);
+        }
+    }
 
-    public void saveHistory(List<String> history) {
+    private void openHistoryWriter() {
+        HistoryWriter writer = new HistoryWriter(getLogFile(), HISTORY_FLUSH_LINES, HISTORY_FLUSH_MILLIS, HISTORY_MAX_PENDING);
         try {
-            FileWriter fr = new FileWriter(getLogFile(), true);
-            BufferedWriter writer = new BufferedWriter(fr);
-            for (String s : history) {
-                writer.write(s + "\n");
-            }
+            writer.start();
+            historyWriter = writer;
+        } catch (IOException e) {
+            System.err.println("История не будет сохраняться: " + e.getMessage());
+        }
+    }
+
+    private void closeHistoryWriter() {
+        HistoryWriter writer = historyWriter;
+        historyWriter = null;
+        if (writer != null) {
             writer.close();
-        }catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
@@ -0,0 +1,108 @@
+package ru.gb.java3.client.model;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+//чтение файла истории с конца: последние строки без чтения всего файла,
+//более старые страницы - по требованию. файл только дописывается, поэтому позиция не сдвигается
+public class HistoryReader implements Closeable {
+    private static final int BLOCK_SIZE = 8 * 1024;
+
+    private final RandomAccessFile file;
+    private long cursor; //начало самой старой из уже прочитанных строк
+
+    public HistoryReader(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.cursor = this.file.length();
+    }
+
+    public synchronized boolean hasOlder() {
+        return cursor > 0;
+    }
+
+    //до count строк перед уже прочитанными, от старых к новым
+    public synchronized List<String> readOlder(int count) throws IOException {
+        LinkedList<String> lines = new LinkedList<>();
+        if (cursor == 0 || count <= 0) {
+            return lines;
+        }
+        //перевод строки перед cursor завершает предыдущую строку, а не начинает пустую
+        long position = cursor;
+        if (readByte(position - 1) == '\n') {
+            position--;
+        }
+        long lineStart = cursor;
+        byte[] carry = new byte[0]; //начало строки, чей конец уже прочитан справа
+        while (position > 0 && lines.size() < count) {
+            int length = (int) Math.min(BLOCK_SIZE, position);
+            position -= length;
+            byte[] data = Arrays.copyOf(read(position, length), length + carry.length);
+            System.arraycopy(carry, 0, data, length, carry.length);
+            int end = data.length;
+            for (int i = length - 1; i >= 0 && lines.size() < count; i--) {
+                if (data[i] == '\n') {
+                    lines.addFirst(decode(data, i + 1, end));
+                    end = i;
+                    lineStart = position + i + 1;
+                }
+            }
+            carry = Arrays.copyOf(data, end);
+        }
+        if (position == 0 && lines.size() < count) {
+            lines.addFirst(decode(carry, 0, carry.length)); //первая строка файла
+            lineStart = 0;
+        }
+        cursor = lineStart;
+        return new ArrayList<>(lines);
+    }
+
+    //старейшие count прочитанных строк больше не показаны: начало сдвигается за них,
+    //и при прокрутке вверх они прочитаются снова
+    public synchronized void skipLines(int count) throws IOException {
+        long length = file.length();
+        byte[] block = new byte[BLOCK_SIZE];
+        while (count > 0 && cursor < length) {
+            int size = (int) Math.min(BLOCK_SIZE, length - cursor);
+            file.seek(cursor);
+            file.readFully(block, 0, size);
+            int i = 0;
+            while (i < size && count > 0) {
+                if (block[i++] == '\n') {
+                    count--;
+                }
+            }
+            cursor += i;
+        }
+    }
+
+    private int readByte(long position) throws IOException {
+        file.seek(position);
+        return file.read();
+    }
+
+    private byte[] read(long position, int length) throws IOException {
+        byte[] block = new byte[length];
+        file.seek(position);
+        file.readFully(block);
+        return block;
+    }
+
+    private static String decode(byte[] data, int from, int to) {
+        if (to > from && data[to - 1] == '\r') {
+            to--;
+        }
+        return new String(data, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,206 @@
+package ru.gb.java3.client.model;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+//запись истории чата в файл по ходу разговора. append() только кладет строку в очередь,
+//фоновый поток дописывает в файл пачкой, как только набралось flushLines строк
+//или прошло flushMillis. в памяти не больше maxPending незаписанных строк.
+//после аварийного завершения оборванная последняя строка файла отрезается при открытии
+public class HistoryWriter implements Closeable {
+    private static final int BLOCK_SIZE = 8 * 1024;
+
+    private final File file;
+    private final int flushLines;
+    private final long flushMillis;
+    private final int maxPending;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasPending = lock.newCondition();
+    private final Condition hasSpace = lock.newCondition();
+    private final Condition hasWritten = lock.newCondition();
+    private ArrayList<String> pending = new ArrayList<>();
+    private long appended; //под lock
+    private long written; //под lock, строки, уже отданные в файл
+    private ArrayList<String> spare = new ArrayList<>(); //только поток записи
+    private boolean running;
+
+    private Writer out; //только поток записи
+    private Thread writer;
+
+    public HistoryWriter(File file, int flushLines, long flushMillis, int maxPending) {
+        this.file = file;
+        this.flushLines = Math.max(1, flushLines);
+        this.flushMillis = flushMillis;
+        this.maxPending = Math.max(this.flushLines, maxPending);
+    }
+
+    public void start() throws IOException {
+        recover();
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        running = true;
+        writer = new Thread(this::writeLoop, "history-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    //добавить строку. ждет, только если запись отстала на maxPending строк
+    public void append(String line) {
+        lock.lock();
+        try {
+            while (running && pending.size() >= maxPending) {
+                hasSpace.awaitUninterruptibly();
+            }
+            if (!running) {
+                return;
+            }
+            pending.add(line);
+            appended++;
+            if (pending.size() == flushLines) {
+                hasPending.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //дождаться записи в файл всего, что добавлено до вызова
+    public void flush() {
+        lock.lock();
+        try {
+            long target = appended;
+            hasPending.signal();
+            while (written < target && writer != null && writer.isAlive()) {
+                hasWritten.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //дописать все, что в очереди, и закрыть файл
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (!running) {
+                return;
+            }
+            running = false;
+            hasPending.signal();
+            hasSpace.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            ArrayList<String> batch = null;
+            boolean stopped;
+            lock.lock();
+            try {
+                //полная пачка будит сразу, иначе запись раз в flushMillis
+                if (running && pending.size() < flushLines) {
+                    try {
+                        hasPending.await(flushMillis, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                }
+                if (!pending.isEmpty()) {
+                    batch = pending;
+                    pending = spare;
+                    hasSpace.signalAll();
+                }
+                stopped = !running;
+            } finally {
+                lock.unlock();
+            }
+            if (batch != null) {
+                writeBatch(batch);
+                lock.lock();
+                try {
+                    written += batch.size();
+                    hasWritten.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                batch.clear();
+                spare = batch;
+            }
+            if (stopped && batch == null) {
+                closeQuietly();
+                return;
+            }
+        }
+    }
+
+    private void writeBatch(ArrayList<String> batch) {
+        try {
+            for (String line : batch) {
+                out.write(line);
+                out.write('\n');
+            }
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Ошибка записи истории: " + e.getMessage());
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //файл должен заканчиваться переводом строки: хвост без него - недописанная строка
+    private void recover() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long length = raf.length();
+            long position = length;
+            byte[] block = new byte[BLOCK_SIZE];
+            while (position > 0) {
+                int size = (int) Math.min(BLOCK_SIZE, position);
+                position -= size;
+                raf.seek(position);
+                raf.readFully(block, 0, size);
+                for (int i = size - 1; i >= 0; i--) {
+                    if (block[i] == '\n') {
+                        truncate(raf, position + i + 1, length);
+                        return;
+                    }
+                }
+            }
+            truncate(raf, 0, length);
+        }
+    }
+
+    private static void truncate(RandomAccessFile raf, long validLength, long length) throws IOException {
+        if (validLength < length) {
+            raf.setLength(validLength);
+            System.err.println("История: отброшена недописанная строка, " + (length - validLength) + " байт");
+        }
+    }
+}
@@ -4,18 +4,33 @@ import ru.gb.java3.client.controller.AuthEvent;
 import ru.gb.java3.client.controller.ClientController;
 import ru.gb.java3.clientserver.Command;
 import ru.gb.java3.clientserver.command.*;
+import ru.gb.java3.clientserver.codec.CommandCodec;
+import ru.gb.java3.clientserver.codec.CommandFormatException;
+import ru.gb.java3.clientserver.codec.FrameCompression;
 
 import java.io.*;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 public class NetworkService {
+    //сколько кадров может ждать отправки; дальше send() сразу возвращает ошибку
+    private static final int SEND_QUEUE_CAPACITY = 1024;
+    private static final int SEND_BUFFER_SIZE = 64 * 1024;
+
     private final String serverIP;
     private final int port;
     private Socket socket;
-    private ObjectInputStream in;
-    private ObjectOutputStream out;
+    private DataInputStream in;
+    private OutputStream out;
+    private final BlockingQueue<OutgoingFrame> sendQueue = new ArrayBlockingQueue<>(SEND_QUEUE_CAPACITY);
+    private Thread writer;
+    private volatile boolean closed;
+    private volatile boolean compression; //сервер согласился на сжатые кадры
 
     private ClientController controller;
 
@@ -35,16 +50,19 @@ public class NetworkService {
     public void connect(ClientController controller) throws IOException {
         this.controller =controller;
         socket = new Socket(serverIP, port);
-        in = new ObjectInputStream(socket.getInputStream());
-        out = new ObjectOutputStream(socket.getOutputStream());
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new BufferedOutputStream(socket.getOutputStream(), SEND_BUFFER_SIZE);
         runReadingThread();
+        runWritingThread();
+        //первым кадром - предложение сжатия; пока сервер не ответил, кадры уходят как есть
+        send(Command.capabilitiesCommand(CapabilitiesCommand.COMPRESSION));
     }
 
     private void runReadingThread() {
         new Thread(() -> {
             while(true){
                 try {
-                    Command command = (Command) in.readObject();
+                    Command command = CommandCodec.read(in);
                     switch (command.getType()){
                         case AUTH:{
                             AuthCommand commandData = (AuthCommand) command.getData();
@@ -77,6 +95,49 @@ public class NetworkService {
                             controller.updateUsersList(users);
                             break;
                         }
+                        case USER_JOINED:{
+                            UserJoinedCommand commandData = (UserJoinedCommand) command.getData();
+                            controller.userJoined(commandData.getUsername());
+                            break;
+                        }
+                        case USER_LEFT:{
+                            UserLeftCommand commandData = (UserLeftCommand) command.getData();
+                            controller.userLeft(commandData.getUsername());
+                            break;
+                        }
+                        case USER_RENAMED:{
+                            UserRenamedCommand commandData = (UserRenamedCommand) command.getData();
+                            controller.userRenamed(commandData.getOldUsername(), commandData.getNewUsername());
+                            break;
+                        }
+                        case CAPABILITIES:{
+                            compression = ((CapabilitiesCommand) command.getData()).hasCompression();
+                            break;
+                        }
+                        case ROOM_MEMBERS:{
+                            RoomMembersCommand commandData = (RoomMembersCommand) command.getData();
+                            controller.roomJoined(commandData.getRoom(), commandData.getUsers());
+                            break;
+                        }
+                        case ROOM_JOIN:{
+                            RoomCommand commandData = (RoomCommand) command.getData();
+                            controller.roomUserJoined(commandData.getRoom(), commandData.getUsername());
+                            break;
+                        }
+                        case ROOM_LEAVE:{
+                            RoomCommand commandData = (RoomCommand) command.getData();
+                            controller.roomUserLeft(commandData.getRoom(), commandData.getUsername());
+                            break;
+                        }
+                        case ROOM_MESSAGE:{
+                            RoomMessageCommand commandData = (RoomMessageCommand) command.getData();
+                            controller.roomMessageReceived(commandData.getRoom(), commandData.getUsername(), commandData.getMessage());
+                            break;
+                        }
+                        case HISTORY_PAGE:{
+                            controller.historyPageReceived((HistoryPageCommand) command.getData());
+                            break;
+                        }
                         case CHANGE_NICK:{
                             ChangeNickCommand commandData = (ChangeNickCommand) command.getData();
                             nick = commandData.getUsername();
@@ -87,11 +148,11 @@ public class NetworkService {
                         default:
                             System.err.println("unknown type of command: " + command.getType());
                     }
+                } catch (CommandFormatException e){
+                    e.printStackTrace();
                 } catch (IOException e) {
                     System.out.println("Поток чтения был прерван!");
                     return;
-                } catch (ClassNotFoundException e){
-                    e.printStackTrace();
                 }
             }
         }).start();
@@ -103,8 +164,62 @@ public class NetworkService {
 
 
 
-    public void sendCommand(Command command) throws IOException{
-        out.writeObject(command);
+    //команда кодируется сразу и встает в очередь, сеть ждет только поток записи.
+    //future завершается после записи в сокет или ошибкой, если очередь полна или связь потеряна
+    public CompletableFuture<Void> send(Command command) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (closed) {
+            result.completeExceptionally(new IOException("Нет соединения с сервером"));
+        } else if (!sendQueue.offer(new OutgoingFrame(CommandCodec.encode(command), result))) {
+            result.completeExceptionally(new IOException("Очередь отправки переполнена"));
+        } else if (closed) {
+            //поток записи мог завершиться между проверкой и offer: его очередь уже никто не разберет
+            failPending(new ArrayList<>(), new IOException("Нет соединения с сервером"));
+        }
+        return result;
+    }
+
+    //все, что накопилось в очереди, уходит одной записью в буфер и одним flush
+    private void runWritingThread() {
+        writer = new Thread(() -> {
+            List<OutgoingFrame> batch = new ArrayList<>();
+            try {
+                while (true) {
+                    batch.add(sendQueue.take());
+                    sendQueue.drainTo(batch);
+                    for (OutgoingFrame frame : batch) {
+                        out.write(compression ? compress(frame.bytes) : frame.bytes);
+                    }
+                    out.flush();
+                    for (OutgoingFrame frame : batch) {
+                        frame.result.complete(null);
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                failPending(batch, new IOException("Соединение закрыто"));
+            } catch (IOException e) {
+                failPending(batch, e);
+            }
+        }, "client-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    //большие кадры сжимаются в потоке записи, чтобы не задерживать окно
+    private static byte[] compress(byte[] frame) {
+        byte[] packed = FrameCompression.compress(frame);
+        return packed == null ? frame : packed;
+    }
+
+    //closed ставится до разбора очереди, а send() проверяет его после offer,
+    //поэтому кадр, добавленный в любой момент, хоть одна из сторон завершит ошибкой
+    private void failPending(List<OutgoingFrame> batch, IOException error) {
+        closed = true;
+        sendQueue.drainTo(batch);
+        for (OutgoingFrame frame : batch) {
+            frame.result.completeExceptionally(error);
+        }
     }
 
     public void setMessageHandler(Consumer<String> messageHandler){
@@ -112,10 +227,24 @@ public class NetworkService {
     }
 
     public void close(){
+        closed = true;
+        if (writer != null) {
+            writer.interrupt(); //поток записи завершит ошибкой все, что осталось в очереди
+        }
         try{
             socket.close();
         }catch (IOException e){
             e. printStackTrace();
         }
     }
+
+    private static final class OutgoingFrame {
+        final byte[] bytes;
+        final CompletableFuture<Void> result;
+
+        OutgoingFrame(byte[] bytes, CompletableFuture<Void> result) {
+            this.bytes = bytes;
+            this.result = result;
+        }
+    }
 }
@@ -6,7 +6,6 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.IOException;
 
 public class AuthDialog extends JFrame {
     private JButton okButton;
@@ -43,11 +42,7 @@ public class AuthDialog extends JFrame {
     private void onOk() {
         String login = loginField.getText().trim();
         String pass = new String(passwordField.getPassword()).trim();
-        try {
-            controller.sendAuthMessage(login, pass);
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Ошибка при аутентификации");
-        }
+        controller.sendAuthMessage(login, pass);
     }
 
     public void showError(String errorMessage) {
@@ -5,7 +5,6 @@ import ru.gb.java3.client.controller.ClientController;
 import javax.swing.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.IOException;
 
 public class ChangeNickDialog extends JFrame{
     private JTextField loginField;
@@ -47,11 +46,7 @@ public class ChangeNickDialog extends JFrame{
         String login = loginField.getText().trim();
         String pass = new String(passwordField.getPassword()).trim();
         String newNick = nickField.getText().trim();
-        try {
-            controller.sendChangeNickMessage(login, pass, newNick);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        controller.sendChangeNickMessage(login, pass, newNick);
 
     }
 
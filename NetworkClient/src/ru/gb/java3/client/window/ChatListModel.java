@@ -0,0 +1,89 @@
+package ru.gb.java3.client.window;
+
+import javax.swing.*;
+import java.util.List;
+
+//модель списка чата на кольцевом буфере: добавление в начало и в конец и удаление
+//из начала без сдвига элементов, одно событие на всю пачку вместо события на строку
+class ChatListModel extends AbstractListModel<String> {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private String[] items = new String[INITIAL_CAPACITY];
+    private int head;
+    private int size;
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return items[(head + index) & (items.length - 1)];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void addAll(List<String> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        ensureCapacity(size + lines.size());
+        for (String line : lines) {
+            items[(head + size) & (items.length - 1)] = line;
+            size++;
+        }
+        fireIntervalAdded(this, size - lines.size(), size - 1);
+    }
+
+    //строки встают в начало в том же порядке
+    public void addFirst(List<String> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        ensureCapacity(size + lines.size());
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            head = (head - 1) & (items.length - 1);
+            items[head] = lines.get(i);
+            size++;
+        }
+        fireIntervalAdded(this, 0, lines.size() - 1);
+    }
+
+    public void removeFirst(int count) {
+        count = Math.min(count, size);
+        if (count <= 0) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            items[head] = null;
+            head = (head + 1) & (items.length - 1);
+        }
+        size -= count;
+        fireIntervalRemoved(this, 0, count - 1);
+    }
+
+    public void clear() {
+        removeFirst(size);
+        head = 0;
+    }
+
+    //емкость - степень двойки, индекс в кольце считается маской
+    private void ensureCapacity(int required) {
+        if (required <= items.length) {
+            return;
+        }
+        int capacity = items.length;
+        while (capacity < required) {
+            capacity <<= 1;
+        }
+        String[] grown = new String[capacity];
+        for (int i = 0; i < size; i++) {
+            grown[i] = getElementAt(i);
+        }
+        items = grown;
+        head = 0;
+    }
+}
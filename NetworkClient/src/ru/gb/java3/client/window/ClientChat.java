@@ -8,32 +8,48 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class ClientChat extends JFrame {
+    private static final int FRAME_MILLIS = 30;
+    //сколько строк держит чат, пока показан его конец; при прокрутке вверх - вдвое больше
+    private static final int CHAT_CAPACITY = 2000;
+    private static final int CHAT_HARD_LIMIT = CHAT_CAPACITY * 2;
     private JPanel contentPane;
     private JTextField enterText;
     private JButton buttonSend;
     private JList<String> contactsList;
+    private DefaultListModel<String> contactsListField;
     private JLabel nameChatLabel;
     private JLabel contactsLabel;
     private JButton buttonClear;
     private JList chatList;
-    private DefaultListModel<String> chatListField;
+    private ChatListModel chatListField;
     private JButton buttonClearChat;
     private JLabel currentContact;
     private JButton buttonChangenick;
 
     private ClientController controller;
-    private List<String> history;
+    private boolean loadingOlderHistory;
+    private int clearCount; //страница истории, запрошенная до очистки, в чат уже не попадает
+    //входящие строки копятся здесь и попадают в список раз в кадр одной пачкой
+    private final Queue<String> inbound = new ConcurrentLinkedQueue<>();
+    private final Timer drainTimer = new Timer(FRAME_MILLIS, e -> drainInbound());
+    private JScrollBar chatScrollBar;
+    private int serverLinesOnTop; //строки с сервера над строками из файла истории
 
 
     public ClientChat(ClientController controller) {
 
         this.controller = controller;
         //поле чата
-        //chatListField = new DefaultListModel<>();
-        //chatList.setModel(chatListField);
-        this.history = new ArrayList<>();
+        chatListField = new ChatListModel();
+        chatList.setModel(chatListField);
+        //одна высота строки: список не измеряет каждую строку при раскладке
+        chatList.setFixedCellHeight(chatList.getFontMetrics(chatList.getFont()).getHeight() + 2);
+        contactsListField = new DefaultListModel<>();
+        contactsList.setModel(contactsListField);
         setSize(640, 480);
         setLocationRelativeTo(null);
         setContentPane(contentPane);
@@ -41,13 +57,15 @@ public class ClientChat extends JFrame {
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
-                controller.saveHistory(history);
+                drainTimer.stop();
                 controller.shutdown();
                 System.exit(0);
 
             }
         });
         addListeners();
+        addHistoryScrollListener();
+        drainTimer.start();
 
     }
 
@@ -58,7 +76,13 @@ public class ClientChat extends JFrame {
 
         buttonClear.addActionListener(e -> enterText.setText(null));
 
-        buttonClearChat.addActionListener(e -> chatListField.clear());
+        buttonClearChat.addActionListener(e -> {
+            inbound.clear();
+            chatListField.clear();
+            serverLinesOnTop = 0;
+            clearCount++;
+            controller.chatHistoryCleared();
+        });
 
         contactsList.addListSelectionListener(e -> {
             String selectedContact = contactsList.getSelectedValue();
@@ -72,6 +96,10 @@ public class ClientChat extends JFrame {
         if (message.isEmpty()) {
             return;
         }
+        if (message.startsWith("/") && controller.sendRoomCommand(message)) {
+            enterText.setText(null);
+            return;
+        }
         if (contactsList.getSelectedIndex() < 1) {
             addOwnMessage(message);
             controller.sendMessageToAll(message); //всем
@@ -96,26 +124,113 @@ public class ClientChat extends JFrame {
 
 
     public void addMessage(String message) {
-        history.add(message);
+        controller.saveHistory(message);
+        inbound.add(message);
+    }
 
+    //все накопленное за кадр - одним добавлением, лишнее сверху отбрасывается
+    private void drainInbound() {
+        if (inbound.isEmpty()) {
+            return;
+        }
+        List<String> batch = new ArrayList<>();
+        String message;
+        while ((message = inbound.poll()) != null) {
+            batch.add(message);
+        }
+        boolean following = isFollowingChat();
+        chatListField.addAll(batch);
+        trimChat(following ? CHAT_CAPACITY : CHAT_HARD_LIMIT);
+        if (following) {
+            chatList.ensureIndexIsVisible(chatListField.getSize() - 1);
+        }
+    }
+
+    private boolean isFollowingChat() {
+        return chatScrollBar.getValue() + chatScrollBar.getVisibleAmount() >= chatScrollBar.getMaximum();
+    }
+
+    //пока подгружается старая страница, начало списка не трогаем
+    private void trimChat(int limit) {
+        int excess = chatListField.getSize() - limit;
+        if (excess <= 0 || loadingOlderHistory) {
+            return;
+        }
+        chatListField.removeFirst(excess);
+        int fromServer = Math.min(excess, serverLinesOnTop);
+        serverLinesOnTop -= fromServer;
+        controller.chatHistoryTrimmed(excess - fromServer);
+    }
+
+    //страница более старых сообщений с сервера встает в начало чата
+    public void addHistoryPage(List<String> messages) {
         SwingUtilities.invokeLater(() -> {
-            chatListField.addElement(message);
+            chatListField.addFirst(messages);
+            serverLinesOnTop += messages.size();
         });
     }
 
-    public void setChatListField(DefaultListModel<String> dlm) {
+    public void setChatListField(List<String> lines) {
         SwingUtilities.invokeLater(() -> {
-            chatListField = controller.loadChatHistoryByID();
-            chatList.setModel(chatListField);
+            chatListField.addFirst(lines);
+            if (!chatListField.isEmpty()) {
+                chatList.ensureIndexIsVisible(chatListField.getSize() - 1);
+            }
+        });
+    }
+
+    //прокрутка до верха чата подгружает более старую страницу локальной истории
+    private void addHistoryScrollListener() {
+        JScrollPane scrollPane = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, chatList);
+        JScrollBar bar = scrollPane.getVerticalScrollBar();
+        chatScrollBar = bar;
+        bar.addAdjustmentListener(e -> {
+            if (e.getValue() == 0 && bar.getMaximum() > bar.getVisibleAmount()
+                    && !loadingOlderHistory && controller.hasOlderChatHistory()) {
+                loadOlderHistory(bar);
+            }
         });
     }
 
+    private void loadOlderHistory(JScrollBar bar) {
+        loadingOlderHistory = true;
+        int clearsBefore = clearCount;
+        new SwingWorker<List<String>, Void>() {
+            @Override
+            protected List<String> doInBackground() {
+                return controller.loadOlderChatHistory();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    List<String> page = get();
+                    if (clearsBefore != clearCount) {
+                        loadingOlderHistory = false;
+                        return;
+                    }
+                    int oldMaximum = bar.getMaximum();
+                    int oldValue = bar.getValue();
+                    chatListField.addFirst(page);
+                    //остаемся на той же строке, новая страница оказывается выше
+                    SwingUtilities.invokeLater(() -> {
+                        bar.setValue(oldValue + bar.getMaximum() - oldMaximum);
+                        loadingOlderHistory = false;
+                    });
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    loadingOlderHistory = false;
+                }
+            }
+        }.execute();
+    }
+
     public void showError(String errorMessage) {
         JOptionPane.showMessageDialog(this, errorMessage);
     }
     public void updateUsers(List<String> users) {
         SwingUtilities.invokeLater(() -> {
-            DefaultListModel<String> contactsListField = new DefaultListModel<>();
+            contactsListField = new DefaultListModel<>();
             //java 8
             for (String user : users) {
                 contactsListField.addElement(user);
@@ -123,6 +238,29 @@ public class ClientChat extends JFrame {
             contactsList.setModel(contactsListField);
         });
     }
+
+    public void addUser(String user) {
+        SwingUtilities.invokeLater(() -> {
+            if (!contactsListField.contains(user)) {
+                contactsListField.addElement(user);
+            }
+        });
+    }
+
+    public void removeUser(String user) {
+        SwingUtilities.invokeLater(() -> contactsListField.removeElement(user));
+    }
+
+    public void renameUser(String oldUser, String newUser) {
+        SwingUtilities.invokeLater(() -> {
+            int index = contactsListField.indexOf(oldUser);
+            if (index >= 0) {
+                contactsListField.set(index, newUser);
+            } else if (!contactsListField.contains(newUser)) {
+                contactsListField.addElement(newUser);
+            }
+        });
+    }
     {
 // GUI initializer generated by IntelliJ IDEA GUI Designer
 // >>> IMPORTANT!! <<<
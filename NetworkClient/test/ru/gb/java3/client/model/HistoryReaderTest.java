@@ -0,0 +1,116 @@
+package ru.gb.java3.client.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HistoryReaderTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("history-reader-test", ".txt");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void emptyFileHasNothingOlder() throws IOException {
+        try (HistoryReader reader = new HistoryReader(file)) {
+            assertFalse(reader.hasOlder());
+            assertTrue(reader.readOlder(10).isEmpty());
+        }
+    }
+
+    //страницы с конца файла подряд, без пропусков и повторов
+    @Test
+    public void pagesFromTailToHead() throws IOException {
+        List<String> lines = numbered(250);
+        write(String.join("\n", lines) + "\n");
+        try (HistoryReader reader = new HistoryReader(file)) {
+            assertEquals(lines.subList(150, 250), reader.readOlder(100));
+            assertEquals(lines.subList(50, 150), reader.readOlder(100));
+            assertTrue(reader.hasOlder());
+            assertEquals(lines.subList(0, 50), reader.readOlder(100));
+            assertFalse(reader.hasOlder());
+            assertTrue(reader.readOlder(100).isEmpty());
+        }
+    }
+
+    @Test
+    public void lastLineWithoutNewline() throws IOException {
+        write("first\nsecond");
+        try (HistoryReader reader = new HistoryReader(file)) {
+            assertEquals(Arrays.asList("first", "second"), reader.readOlder(10));
+        }
+    }
+
+    @Test
+    public void emptyLinesAndCarriageReturnsAreKept() throws IOException {
+        write("a\r\n\r\nb\n\nc\n");
+        try (HistoryReader reader = new HistoryReader(file)) {
+            assertEquals(Arrays.asList("a", "", "b", "", "c"), reader.readOlder(10));
+        }
+    }
+
+    //строка длиннее блока чтения и многобайтные символы на границе блоков
+    @Test
+    public void longMultibyteLinesAcrossBlocks() throws IOException {
+        String longLine = String.join("", Collections.nCopies(10000, "ж"));
+        write("начало\n" + longLine + "\nконец\n");
+        try (HistoryReader reader = new HistoryReader(file)) {
+            assertEquals(Collections.singletonList("конец"), reader.readOlder(1));
+            assertEquals(Collections.singletonList(longLine), reader.readOlder(1));
+            assertEquals(Collections.singletonList("начало"), reader.readOlder(1));
+        }
+    }
+
+    //убранные с экрана старые строки читаются снова при прокрутке вверх
+    @Test
+    public void skippedLinesAreReadAgain() throws IOException {
+        List<String> lines = numbered(250);
+        write(String.join("\n", lines) + "\n");
+        try (HistoryReader reader = new HistoryReader(file)) {
+            reader.readOlder(100);
+            reader.skipLines(40);
+            assertEquals(lines.subList(180, 190), reader.readOlder(10));
+        }
+    }
+
+    //строки, дописанные после открытия, в страницы не попадают
+    @Test
+    public void linesAppendedAfterOpenAreNotRead() throws IOException {
+        write("old\n");
+        try (HistoryReader reader = new HistoryReader(file)) {
+            Files.write(file.toPath(), "new\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            assertEquals(Collections.singletonList("old"), reader.readOlder(10));
+        }
+    }
+
+    private void write(String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> numbered(int count) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add("nick" + (i % 7) + ": сообщение " + i);
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,139 @@
+package ru.gb.java3.client.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HistoryWriterTest {
+    private File file;
+    private HistoryWriter writer;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("history-writer-test", ".txt");
+    }
+
+    @After
+    public void tearDown() {
+        if (writer != null) {
+            writer.close();
+        }
+        file.delete();
+    }
+
+    //close дописывает всю очередь по порядку
+    @Test
+    public void closeWritesEverything() throws IOException {
+        writer = new HistoryWriter(file, 64, 10_000, 256);
+        writer.start();
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            lines.add("nick: сообщение " + i);
+            writer.append(lines.get(i));
+        }
+        writer.close();
+        assertEquals(lines, read());
+    }
+
+    @Test
+    public void fullBatchIsWrittenWithoutWaitingForTimer() throws Exception {
+        writer = new HistoryWriter(file, 3, 60_000, 100);
+        writer.start();
+        writer.append("a");
+        writer.append("b");
+        writer.append("c");
+        awaitLines(3);
+        assertEquals(Arrays.asList("a", "b", "c"), read());
+    }
+
+    @Test
+    public void partialBatchIsWrittenAfterFlushInterval() throws Exception {
+        writer = new HistoryWriter(file, 1000, 50, 2000);
+        writer.start();
+        writer.append("одна строка");
+        awaitLines(1);
+        assertEquals(Arrays.asList("одна строка"), read());
+    }
+
+    //недописанная при сбое строка отрезается, новые строки идут после последней целой
+    @Test
+    public void tornLastLineIsDroppedOnStart() throws IOException {
+        write("first\nsecond\nhal");
+        writer = new HistoryWriter(file, 10, 10_000, 100);
+        writer.start();
+        assertEquals(Arrays.asList("first", "second"), read());
+
+        writer.append("third");
+        writer.close();
+        assertEquals(Arrays.asList("first", "second", "third"), read());
+    }
+
+    @Test
+    public void fileWithoutAnyNewlineIsEmptiedOnStart() throws IOException {
+        write("обрыв без перевода строки");
+        writer = new HistoryWriter(file, 10, 10_000, 100);
+        writer.start();
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void completeFileIsLeftAlone() throws IOException {
+        write("first\nsecond\n");
+        writer = new HistoryWriter(file, 10, 10_000, 100);
+        writer.start();
+        writer.close();
+        assertEquals(Arrays.asList("first", "second"), read());
+    }
+
+    @Test
+    public void appendAfterCloseIsIgnored() throws IOException {
+        writer = new HistoryWriter(file, 10, 10_000, 100);
+        writer.start();
+        writer.append("before");
+        writer.close();
+        writer.append("after");
+        writer.close();
+        assertEquals(Arrays.asList("before"), read());
+    }
+
+    //записанное читается HistoryReader с конца
+    @Test
+    public void readerSeesWrittenLines() throws IOException {
+        writer = new HistoryWriter(file, 16, 10_000, 64);
+        writer.start();
+        for (int i = 0; i < 300; i++) {
+            writer.append("line " + i);
+        }
+        writer.close();
+        try (HistoryReader reader = new HistoryReader(file)) {
+            List<String> page = reader.readOlder(2);
+            assertEquals(Arrays.asList("line 298", "line 299"), page);
+        }
+    }
+
+    private void awaitLines(int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (read().size() < count) {
+            assertTrue("в файле меньше " + count + " строк", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private List<String> read() throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    private void write(String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
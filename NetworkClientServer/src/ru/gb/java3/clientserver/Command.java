@@ -74,6 +74,76 @@ public class Command implements Serializable {
         return command;
     }
 
+    public static Command userJoinedCommand(String username){
+        Command command = new Command();
+        command.type = CommandType.USER_JOINED;
+        command.data = new UserJoinedCommand(username);
+        return command;
+    }
+
+    public static Command userLeftCommand(String username){
+        Command command = new Command();
+        command.type = CommandType.USER_LEFT;
+        command.data = new UserLeftCommand(username);
+        return command;
+    }
+
+    public static Command userRenamedCommand(String oldUsername, String newUsername){
+        Command command = new Command();
+        command.type = CommandType.USER_RENAMED;
+        command.data = new UserRenamedCommand(oldUsername, newUsername);
+        return command;
+    }
+
+    public static Command historyRequestCommand(String peer, long anchorId, long anchorTime, boolean older, int limit){
+        Command command = new Command();
+        command.type = CommandType.HISTORY_REQUEST;
+        command.data = new HistoryRequestCommand(peer, anchorId, anchorTime, older, limit);
+        return command;
+    }
+
+    public static Command historyPageCommand(String peer, List<HistoryMessage> messages, long nextAnchorId){
+        Command command = new Command();
+        command.type = CommandType.HISTORY_PAGE;
+        command.data = new HistoryPageCommand(peer, messages, nextAnchorId);
+        return command;
+    }
+
+    public static Command capabilitiesCommand(int flags){
+        Command command = new Command();
+        command.type = CommandType.CAPABILITIES;
+        command.data = new CapabilitiesCommand(flags);
+        return command;
+    }
+
+    public static Command roomJoinCommand(String room, String username){
+        Command command = new Command();
+        command.type = CommandType.ROOM_JOIN;
+        command.data = new RoomCommand(room, username);
+        return command;
+    }
+
+    public static Command roomLeaveCommand(String room, String username){
+        Command command = new Command();
+        command.type = CommandType.ROOM_LEAVE;
+        command.data = new RoomCommand(room, username);
+        return command;
+    }
+
+    public static Command roomMessageCommand(String room, String username, String message){
+        Command command = new Command();
+        command.type = CommandType.ROOM_MESSAGE;
+        command.data = new RoomMessageCommand(room, username, message);
+        return command;
+    }
+
+    public static Command roomMembersCommand(String room, List<String> users){
+        Command command = new Command();
+        command.type = CommandType.ROOM_MEMBERS;
+        command.data = new RoomMembersCommand(room, users);
+        return command;
+    }
+
     public static Command endCommand(){
         Command command = new Command();
         command.type = CommandType.END;
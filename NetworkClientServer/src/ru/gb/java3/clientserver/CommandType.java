@@ -1,13 +1,50 @@
 package ru.gb.java3.clientserver;
 
 public enum CommandType {
-    AUTH,
-    AUTH_ERROR,
-    PRIVATE_MESSAGE,
-    BROADCAST_MESSAGE,
-    MESSAGE,
-    UPDATE_USER_LIST,
-    ERROR,
-    END,
-    CHANGE_NICK
+    AUTH(1),
+    AUTH_ERROR(2),
+    PRIVATE_MESSAGE(3),
+    BROADCAST_MESSAGE(4),
+    MESSAGE(5),
+    UPDATE_USER_LIST(6),
+    ERROR(7),
+    END(8),
+    CHANGE_NICK(9),
+    //изменения состава чата, полный UPDATE_USER_LIST приходит только при входе
+    USER_JOINED(10),
+    USER_LEFT(11),
+    USER_RENAMED(12),
+    //постраничная история с сервера
+    HISTORY_REQUEST(13),
+    HISTORY_PAGE(14),
+    //договоренность о возможностях соединения (сжатие) сразу после подключения
+    CAPABILITIES(15),
+    //комнаты: вход, выход, сообщение, состав. рассылка только участникам
+    ROOM_JOIN(16),
+    ROOM_LEAVE(17),
+    ROOM_MESSAGE(18),
+    ROOM_MEMBERS(19);
+
+    //байт типа в бинарном кадре, не зависит от порядка констант
+    private final int code;
+    private static final CommandType[] BY_CODE = new CommandType[256];
+
+    static {
+        for (CommandType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    CommandType(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    //null, если такого кода нет
+    public static CommandType fromCode(int code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
 }
@@ -0,0 +1,69 @@
+package ru.gb.java3.clientserver.codec;
+
+import java.nio.charset.StandardCharsets;
+
+//чтение полей команды из тела кадра
+class BinaryReader {
+    private final byte[] buffer;
+    private final int limit;
+    private int position;
+
+    BinaryReader(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    boolean hasRemaining() {
+        return position < limit;
+    }
+
+    int position() {
+        return position;
+    }
+
+    int readByte() throws CommandFormatException {
+        if (position >= limit) {
+            throw new CommandFormatException("Unexpected end of command");
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    int readVarint() throws CommandFormatException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new CommandFormatException("Malformed varint");
+    }
+
+    long readVarlong() throws CommandFormatException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new CommandFormatException("Malformed varlong");
+    }
+
+    String readString() throws CommandFormatException {
+        int length = readVarint();
+        if (length == 0) {
+            return null;
+        }
+        length--;
+        if (length < 0 || length > limit - position) {
+            throw new CommandFormatException("Invalid string length: " + length);
+        }
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+}
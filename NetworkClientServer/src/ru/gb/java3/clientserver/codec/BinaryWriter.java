@@ -0,0 +1,83 @@
+package ru.gb.java3.clientserver.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+//растущий буфер для кодирования команды без DataOutputStream и лишних обращений к потокам
+class BinaryWriter {
+    private byte[] buffer;
+    private int position;
+
+    BinaryWriter(int initialCapacity, int reserved) {
+        this.buffer = new byte[Math.max(initialCapacity, reserved + 16)];
+        this.position = reserved;
+    }
+
+    int position() {
+        return position;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    void writeBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    void writeVarint(int value) {
+        ensureCapacity(5);
+        position = putVarint(buffer, position, value);
+    }
+
+    void writeVarlong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    //null кодируется нулем, иначе длина + 1 и байты UTF-8
+    void writeString(String value) {
+        if (value == null) {
+            writeVarint(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length + 1);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    static int putVarint(byte[] target, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            target[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target[offset++] = (byte) value;
+        return offset;
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+        }
+    }
+}
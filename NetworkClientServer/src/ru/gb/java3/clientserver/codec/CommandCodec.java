@@ -0,0 +1,318 @@
+package ru.gb.java3.clientserver.codec;
+
+import ru.gb.java3.clientserver.Command;
+import ru.gb.java3.clientserver.CommandType;
+import ru.gb.java3.clientserver.command.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+//кадр на проводе: varint длины тела + тело.
+//тело: байт CommandType.getCode(), затем поля команды по порядку.
+//строки - varint (длина + 1, 0 для null) и байты UTF-8, списки - varint размера и элементы,
+//id и время - varint на 64 бита.
+//старший бит в байте типа - тело сжато, см. FrameCompression
+public class CommandCodec {
+    public static final int MAX_HEADER_LENGTH = 5;
+    public static final int MAX_BODY_LENGTH = 1024 * 1024;
+
+    private CommandCodec() {
+    }
+
+    //готовый кадр вместе с заголовком
+    public static byte[] encode(Command command) {
+        BinaryWriter writer = new BinaryWriter(64, MAX_HEADER_LENGTH);
+        writeBody(writer, command);
+        int bodyLength = writer.position() - MAX_HEADER_LENGTH;
+        int headerLength = BinaryWriter.varintSize(bodyLength);
+        byte[] frame = new byte[headerLength + bodyLength];
+        BinaryWriter.putVarint(frame, 0, bodyLength);
+        System.arraycopy(writer.buffer(), MAX_HEADER_LENGTH, frame, headerLength, bodyLength);
+        return frame;
+    }
+
+    private static void writeBody(BinaryWriter writer, Command command) {
+        CommandType type = command.getType();
+        writer.writeByte(type.getCode());
+        Object data = command.getData();
+        switch (type) {
+            case AUTH: {
+                AuthCommand auth = (AuthCommand) data;
+                writer.writeString(auth.getLogin());
+                writer.writeString(auth.getPassword());
+                writer.writeVarint(auth.getID());
+                writer.writeString(auth.getUsername());
+                break;
+            }
+            case AUTH_ERROR:
+            case ERROR:
+                writer.writeString(((ErrorCommand) data).getErrorMessage());
+                break;
+            case PRIVATE_MESSAGE: {
+                PrivateMessageCommand message = (PrivateMessageCommand) data;
+                writer.writeString(message.getReceiver());
+                writer.writeString(message.getMessage());
+                break;
+            }
+            case BROADCAST_MESSAGE:
+                writer.writeString(((BroadcastMessageCommand) data).getMessage());
+                break;
+            case MESSAGE: {
+                MessageCommand message = (MessageCommand) data;
+                writer.writeString(message.getUsername());
+                writer.writeString(message.getMessage());
+                break;
+            }
+            case UPDATE_USER_LIST: {
+                List<String> users = ((UpdateUsersListCommand) data).getUsers();
+                writer.writeVarint(users.size());
+                for (String user : users) {
+                    writer.writeString(user);
+                }
+                break;
+            }
+            case CHANGE_NICK: {
+                ChangeNickCommand changeNick = (ChangeNickCommand) data;
+                writer.writeString(changeNick.getLogin());
+                writer.writeString(changeNick.getPassword());
+                writer.writeString(changeNick.getUsername());
+                break;
+            }
+            case USER_JOINED:
+                writer.writeString(((UserJoinedCommand) data).getUsername());
+                break;
+            case USER_LEFT:
+                writer.writeString(((UserLeftCommand) data).getUsername());
+                break;
+            case USER_RENAMED: {
+                UserRenamedCommand renamed = (UserRenamedCommand) data;
+                writer.writeString(renamed.getOldUsername());
+                writer.writeString(renamed.getNewUsername());
+                break;
+            }
+            case HISTORY_REQUEST: {
+                HistoryRequestCommand request = (HistoryRequestCommand) data;
+                writer.writeString(request.getPeer());
+                writer.writeVarlong(request.getAnchorId());
+                writer.writeVarlong(request.getAnchorTime());
+                writer.writeByte(request.isOlder() ? 1 : 0);
+                writer.writeVarint(request.getLimit());
+                break;
+            }
+            case HISTORY_PAGE: {
+                HistoryPageCommand page = (HistoryPageCommand) data;
+                writer.writeString(page.getPeer());
+                writer.writeVarlong(page.getNextAnchorId());
+                writer.writeVarint(page.getMessages().size());
+                for (HistoryMessage message : page.getMessages()) {
+                    writer.writeVarlong(message.getId());
+                    writer.writeVarlong(message.getTimestamp());
+                    writer.writeString(message.getSender());
+                    writer.writeString(message.getReceiver());
+                    writer.writeString(message.getMessage());
+                }
+                break;
+            }
+            case END:
+                break;
+            case CAPABILITIES:
+                writer.writeVarint(((CapabilitiesCommand) data).getFlags());
+                break;
+            case ROOM_JOIN:
+            case ROOM_LEAVE: {
+                RoomCommand room = (RoomCommand) data;
+                writer.writeString(room.getRoom());
+                writer.writeString(room.getUsername());
+                break;
+            }
+            case ROOM_MESSAGE: {
+                RoomMessageCommand message = (RoomMessageCommand) data;
+                writer.writeString(message.getRoom());
+                writer.writeString(message.getUsername());
+                writer.writeString(message.getMessage());
+                break;
+            }
+            case ROOM_MEMBERS: {
+                RoomMembersCommand members = (RoomMembersCommand) data;
+                writer.writeString(members.getRoom());
+                writer.writeVarint(members.getUsers().size());
+                for (String user : members.getUsers()) {
+                    writer.writeString(user);
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported command type: " + type);
+        }
+    }
+
+    public static Command decode(byte[] body, int offset, int length) throws CommandFormatException {
+        if (FrameCompression.isCompressed(body, offset, length)) {
+            byte[] original = FrameCompression.decompress(body, offset, length);
+            return decode(original, 0, original.length);
+        }
+        BinaryReader reader = new BinaryReader(body, offset, length);
+        int code = reader.readByte();
+        CommandType type = CommandType.fromCode(code);
+        if (type == null) {
+            throw new CommandFormatException("Unknown type of command: " + code);
+        }
+        Command command;
+        switch (type) {
+            case AUTH: {
+                command = Command.authCommand(reader.readString(), reader.readString());
+                AuthCommand auth = (AuthCommand) command.getData();
+                auth.setID(reader.readVarint());
+                auth.setUsername(reader.readString());
+                break;
+            }
+            case AUTH_ERROR:
+                command = Command.authErrorCommand(reader.readString());
+                break;
+            case ERROR:
+                command = Command.errorCommand(reader.readString());
+                break;
+            case PRIVATE_MESSAGE:
+                command = Command.privateMessageCommand(reader.readString(), reader.readString());
+                break;
+            case BROADCAST_MESSAGE:
+                command = Command.broadcastMessage(reader.readString());
+                break;
+            case MESSAGE:
+                command = Command.messageCommand(reader.readString(), reader.readString());
+                break;
+            case UPDATE_USER_LIST:
+                command = Command.updateUsersListCommand(readStringList(reader, length));
+                break;
+            case CHANGE_NICK:
+                command = Command.changeNickCommand(reader.readString(), reader.readString(), reader.readString());
+                break;
+            case USER_JOINED:
+                command = Command.userJoinedCommand(reader.readString());
+                break;
+            case USER_LEFT:
+                command = Command.userLeftCommand(reader.readString());
+                break;
+            case USER_RENAMED:
+                command = Command.userRenamedCommand(reader.readString(), reader.readString());
+                break;
+            case HISTORY_REQUEST:
+                command = Command.historyRequestCommand(reader.readString(), reader.readVarlong(),
+                        reader.readVarlong(), reader.readByte() != 0, reader.readVarint());
+                break;
+            case HISTORY_PAGE: {
+                String peer = reader.readString();
+                long nextAnchorId = reader.readVarlong();
+                int size = reader.readVarint();
+                if (size < 0 || size > length) {
+                    throw new CommandFormatException("Invalid list size: " + size);
+                }
+                List<HistoryMessage> messages = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    messages.add(new HistoryMessage(reader.readVarlong(), reader.readVarlong(),
+                            reader.readString(), reader.readString(), reader.readString()));
+                }
+                command = Command.historyPageCommand(peer, messages, nextAnchorId);
+                break;
+            }
+            case CAPABILITIES:
+                command = Command.capabilitiesCommand(reader.readVarint());
+                break;
+            case ROOM_JOIN:
+                command = Command.roomJoinCommand(reader.readString(), reader.readString());
+                break;
+            case ROOM_LEAVE:
+                command = Command.roomLeaveCommand(reader.readString(), reader.readString());
+                break;
+            case ROOM_MESSAGE:
+                command = Command.roomMessageCommand(reader.readString(), reader.readString(), reader.readString());
+                break;
+            case ROOM_MEMBERS: {
+                String room = reader.readString();
+                command = Command.roomMembersCommand(room, readStringList(reader, length));
+                break;
+            }
+            case END:
+                command = Command.endCommand();
+                break;
+            default:
+                throw new CommandFormatException("Unsupported command type: " + type);
+        }
+        if (reader.hasRemaining()) {
+            throw new CommandFormatException("Trailing bytes after " + type);
+        }
+        return command;
+    }
+
+    //размер списка не больше длины тела: на каждую строку хотя бы байт
+    private static List<String> readStringList(BinaryReader reader, int length) throws CommandFormatException {
+        int size = reader.readVarint();
+        if (size < 0 || size > length) {
+            throw new CommandFormatException("Invalid list size: " + size);
+        }
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(reader.readString());
+        }
+        return values;
+    }
+
+    public static void write(OutputStream out, Command command) throws IOException {
+        out.write(encode(command));
+        out.flush();
+    }
+
+    //блокирующее чтение одного кадра
+    public static Command read(DataInputStream in) throws IOException {
+        int length = readBodyLength(in);
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decode(body, 0, length);
+    }
+
+    private static int readBodyLength(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                checkBodyLength(value);
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed frame length");
+    }
+
+    //длина тела следующего кадра без сдвига позиции буфера, -1 если заголовок пришел не весь
+    public static int peekBodyLength(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        int index = buffer.position();
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (index >= buffer.limit()) {
+                return -1;
+            }
+            int b = buffer.get(index++);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                checkBodyLength(value);
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed frame length");
+    }
+
+    public static int headerLength(int bodyLength) {
+        return BinaryWriter.varintSize(bodyLength);
+    }
+
+    public static void checkBodyLength(int length) throws IOException {
+        if (length < 0 || length > MAX_BODY_LENGTH) {
+            throw new StreamCorruptedException("Invalid frame length: " + length);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package ru.gb.java3.clientserver.codec;
+
+import java.io.IOException;
+
+//кадр прочитан целиком, но команду из него собрать не удалось
+public class CommandFormatException extends IOException {
+
+    public CommandFormatException(String message) {
+        super(message);
+    }
+
+    public CommandFormatException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,82 @@
+package ru.gb.java3.clientserver.codec;
+
+import ru.gb.java3.clientserver.Command;
+import ru.gb.java3.clientserver.CommandType;
+import ru.gb.java3.clientserver.command.UserJoinedCommand;
+import ru.gb.java3.clientserver.command.UserLeftCommand;
+import ru.gb.java3.clientserver.command.UserRenamedCommand;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+//закодированная команда вместе с заголовком. неизменяемая, поэтому один кадр
+//можно отдать сразу всем получателям рассылки
+public final class Frame {
+    private final CommandType type;
+    private final byte[] bytes;
+    //для изменений состава чата - чей ник, у смены ника - новый и старый. иначе null
+    private final String nick;
+    private final String oldNick;
+    private volatile Frame compressed; //считается при первом запросе, дальше общий
+
+    private Frame(CommandType type, byte[] bytes, String nick, String oldNick) {
+        this.type = type;
+        this.bytes = bytes;
+        this.nick = nick;
+        this.oldNick = oldNick;
+    }
+
+    public static Frame encode(Command command) {
+        byte[] bytes = CommandCodec.encode(command);
+        switch (command.getType()) {
+            case USER_JOINED:
+                return new Frame(command.getType(), bytes, ((UserJoinedCommand) command.getData()).getUsername(), null);
+            case USER_LEFT:
+                return new Frame(command.getType(), bytes, ((UserLeftCommand) command.getData()).getUsername(), null);
+            case USER_RENAMED: {
+                UserRenamedCommand data = (UserRenamedCommand) command.getData();
+                return new Frame(command.getType(), bytes, data.getNewUsername(), data.getOldUsername());
+            }
+            default:
+                return new Frame(command.getType(), bytes, null, null);
+        }
+    }
+
+    //вариант кадра для получателей, договорившихся о сжатии. сжимается один раз на кадр;
+    //малые и несжимаемые кадры остаются как есть
+    public Frame compressed() {
+        Frame result = compressed;
+        if (result == null) {
+            byte[] packed = FrameCompression.compress(bytes);
+            result = packed == null ? this : new Frame(type, packed, nick, oldNick);
+            compressed = result;
+        }
+        return result;
+    }
+
+    public CommandType getType() {
+        return type;
+    }
+
+    public String getNick() {
+        return nick;
+    }
+
+    public String getOldNick() {
+        return oldNick;
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    //у каждого получателя своя позиция, байты общие
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,116 @@
+package ru.gb.java3.clientserver.codec;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+//сжатие больших кадров, включается только если обе стороны договорились (CAPABILITIES).
+//у сжатого кадра в байте типа поднят старший бит, дальше varint длины исходного тела
+//и само тело, сжатое deflate без zlib-обертки. Deflater и Inflater берутся на один кадр
+//из общего пула не больше числа ядер: у каждого сотни килобайт памяти вне кучи, и держать
+//их за каждым потоком соединения нельзя. если пул пуст, создается временный и сразу освобождается
+public final class FrameCompression {
+    public static final int COMPRESSED_FLAG = 0x80;
+    //тела короче не сжимаются: выигрыш не окупает работу
+    public static final int THRESHOLD = 512;
+
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    private static final BlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private FrameCompression() {
+    }
+
+    //сжатый кадр с заголовком или null, если кадр мал или сжатие не дало выигрыша
+    public static byte[] compress(byte[] frame) {
+        int bodyLength = 0;
+        int headerLength = 0;
+        int b;
+        do {
+            b = frame[headerLength];
+            bodyLength |= (b & 0x7F) << (7 * headerLength);
+            headerLength++;
+        } while ((b & 0x80) != 0);
+        if (bodyLength < THRESHOLD) {
+            return null;
+        }
+        //сжатое тело длиннее исходного не нужно: буфера хватает ровно на исходное
+        byte[] buffer = new byte[CommandCodec.MAX_HEADER_LENGTH + bodyLength];
+        int position = CommandCodec.MAX_HEADER_LENGTH;
+        buffer[position++] = (byte) (frame[headerLength] | COMPRESSED_FLAG);
+        position = BinaryWriter.putVarint(buffer, position, bodyLength);
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED, true);
+        }
+        try {
+            deflater.setInput(frame, headerLength, bodyLength);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (position == buffer.length) {
+                    return null;
+                }
+                position += deflater.deflate(buffer, position, buffer.length - position);
+            }
+        } finally {
+            deflater.reset();
+            if (!DEFLATERS.offer(deflater)) {
+                deflater.end();
+            }
+        }
+        int compressedLength = position - CommandCodec.MAX_HEADER_LENGTH;
+        if (compressedLength >= bodyLength) {
+            return null;
+        }
+        int compressedHeader = BinaryWriter.varintSize(compressedLength);
+        byte[] result = new byte[compressedHeader + compressedLength];
+        BinaryWriter.putVarint(result, 0, compressedLength);
+        System.arraycopy(buffer, CommandCodec.MAX_HEADER_LENGTH, result, compressedHeader, compressedLength);
+        return result;
+    }
+
+    public static boolean isCompressed(byte[] body, int offset, int length) {
+        return length > 0 && (body[offset] & COMPRESSED_FLAG) != 0;
+    }
+
+    //исходное тело сжатого кадра
+    public static byte[] decompress(byte[] body, int offset, int length) throws CommandFormatException {
+        BinaryReader reader = new BinaryReader(body, offset + 1, length - 1);
+        int originalLength = reader.readVarint();
+        if (originalLength <= 0 || originalLength > CommandCodec.MAX_BODY_LENGTH) {
+            throw new CommandFormatException("Invalid uncompressed length: " + originalLength);
+        }
+        int dataOffset = reader.position();
+        Inflater inflater = INFLATERS.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        byte[] original = new byte[originalLength];
+        int position = 0;
+        boolean finished;
+        try {
+            inflater.setInput(body, dataOffset, offset + length - dataOffset);
+            while (position < originalLength) {
+                int inflated = inflater.inflate(original, position, originalLength - position);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                position += inflated;
+            }
+            finished = inflater.finished();
+        } catch (DataFormatException e) {
+            throw new CommandFormatException("Corrupted compressed frame", e);
+        } finally {
+            inflater.reset();
+            if (!INFLATERS.offer(inflater)) {
+                inflater.end();
+            }
+        }
+        if (position != originalLength || !finished || (original[0] & COMPRESSED_FLAG) != 0) {
+            throw new CommandFormatException("Corrupted compressed frame");
+        }
+        return original;
+    }
+}
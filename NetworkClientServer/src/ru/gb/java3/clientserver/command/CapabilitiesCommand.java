@@ -0,0 +1,23 @@
+package ru.gb.java3.clientserver.command;
+
+import java.io.Serializable;
+
+//возможности соединения: клиент предлагает сразу после подключения,
+//сервер отвечает тем подмножеством, которое включил
+public class CapabilitiesCommand implements Serializable {
+    public static final int COMPRESSION = 1;
+
+    private final int flags;
+
+    public CapabilitiesCommand(int flags) {
+        this.flags = flags;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean hasCompression() {
+        return (flags & COMPRESSION) != 0;
+    }
+}
@@ -0,0 +1,40 @@
+package ru.gb.java3.clientserver.command;
+
+import java.io.Serializable;
+
+//сообщение в странице истории. receiver == null - сообщение в общий чат
+public class HistoryMessage implements Serializable {
+    private final long id;
+    private final long timestamp;
+    private final String sender;
+    private final String receiver;
+    private final String message;
+
+    public HistoryMessage(long id, long timestamp, String sender, String receiver, String message) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.sender = sender;
+        this.receiver = receiver;
+        this.message = message;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getReceiver() {
+        return receiver;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
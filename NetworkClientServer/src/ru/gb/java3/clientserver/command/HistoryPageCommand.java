@@ -0,0 +1,34 @@
+package ru.gb.java3.clientserver.command;
+
+import java.io.Serializable;
+import java.util.List;
+
+//ответ на HistoryRequestCommand. сообщения от старых к новым.
+//nextAnchorId - опорный id для следующей страницы в том же направлении, 0 - дальше ничего нет
+public class HistoryPageCommand implements Serializable {
+    private final String peer;
+    private final List<HistoryMessage> messages;
+    private final long nextAnchorId;
+
+    public HistoryPageCommand(String peer, List<HistoryMessage> messages, long nextAnchorId) {
+        this.peer = peer;
+        this.messages = messages;
+        this.nextAnchorId = nextAnchorId;
+    }
+
+    public String getPeer() {
+        return peer;
+    }
+
+    public List<HistoryMessage> getMessages() {
+        return messages;
+    }
+
+    public long getNextAnchorId() {
+        return nextAnchorId;
+    }
+
+    public boolean hasMore() {
+        return nextAnchorId != 0;
+    }
+}
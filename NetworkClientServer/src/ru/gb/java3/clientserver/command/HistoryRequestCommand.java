@@ -0,0 +1,42 @@
+package ru.gb.java3.clientserver.command;
+
+import java.io.Serializable;
+
+//запрос страницы истории. peer == null - общий чат, иначе переписка с этим пользователем.
+//опорная точка - id сообщения, если задан, иначе время в миллисекундах; оба 0 - конец
+//(для older) или начало истории. older - сообщения до опорной точки, иначе после нее
+public class HistoryRequestCommand implements Serializable {
+    private final String peer;
+    private final long anchorId;
+    private final long anchorTime;
+    private final boolean older;
+    private final int limit;
+
+    public HistoryRequestCommand(String peer, long anchorId, long anchorTime, boolean older, int limit) {
+        this.peer = peer;
+        this.anchorId = anchorId;
+        this.anchorTime = anchorTime;
+        this.older = older;
+        this.limit = limit;
+    }
+
+    public String getPeer() {
+        return peer;
+    }
+
+    public long getAnchorId() {
+        return anchorId;
+    }
+
+    public long getAnchorTime() {
+        return anchorTime;
+    }
+
+    public boolean isOlder() {
+        return older;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
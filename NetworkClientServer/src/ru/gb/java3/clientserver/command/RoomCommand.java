@@ -0,0 +1,23 @@
+package ru.gb.java3.clientserver.command;
+
+import java.io.Serializable;
+
+//вход в комнату или выход из нее. от клиента - запрос (username == null),
+//от сервера - уведомление участникам комнаты
+public class RoomCommand implements Serializable {
+    private final String room;
+    private final String username;
+
+    public RoomCommand(String room, String username) {
+        this.room = room;
+        this.username = username;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+}
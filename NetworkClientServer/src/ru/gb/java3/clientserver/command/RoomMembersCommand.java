@@ -0,0 +1,23 @@
+package ru.gb.java3.clientserver.command;
+
+import java.io.Serializable;
+import java.util.List;
+
+//участники комнаты: приходит вошедшему, дальше только ROOM_JOIN и ROOM_LEAVE
+public class RoomMembersCommand implements Serializable {
+    private final String room;
+    private final List<String> users;
+
+    public RoomMembersCommand(String room, List<String> users) {
+        this.room = room;
+        this.users = users;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public List<String> getUsers() {
+        return users;
+    }
+}
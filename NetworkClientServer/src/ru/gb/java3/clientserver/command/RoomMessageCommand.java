@@ -0,0 +1,28 @@
+package ru.gb.java3.clientserver.command;
+
+import java.io.Serializable;
+
+//сообщение в комнату. от клиента username == null, сервер подставляет отправителя
+public class RoomMessageCommand implements Serializable {
+    private final String room;
+    private final String username;
+    private final String message;
+
+    public RoomMessageCommand(String room, String username, String message) {
+        this.room = room;
+        this.username = username;
+        this.message = message;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
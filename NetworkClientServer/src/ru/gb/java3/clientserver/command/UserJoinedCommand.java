@@ -0,0 +1,15 @@
+package ru.gb.java3.clientserver.command;
+
+import java.io.Serializable;
+
+public class UserJoinedCommand implements Serializable {
+    private final String username;
+
+    public UserJoinedCommand(String username) {
+        this.username = username;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+}
@@ -0,0 +1,15 @@
+package ru.gb.java3.clientserver.command;
+
+import java.io.Serializable;
+
+public class UserLeftCommand implements Serializable {
+    private final String username;
+
+    public UserLeftCommand(String username) {
+        this.username = username;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+}
@@ -0,0 +1,21 @@
+package ru.gb.java3.clientserver.command;
+
+import java.io.Serializable;
+
+public class UserRenamedCommand implements Serializable {
+    private final String oldUsername;
+    private final String newUsername;
+
+    public UserRenamedCommand(String oldUsername, String newUsername) {
+        this.oldUsername = oldUsername;
+        this.newUsername = newUsername;
+    }
+
+    public String getOldUsername() {
+        return oldUsername;
+    }
+
+    public String getNewUsername() {
+        return newUsername;
+    }
+}
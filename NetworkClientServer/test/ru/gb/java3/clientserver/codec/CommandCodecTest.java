@@ -0,0 +1,191 @@
+package ru.gb.java3.clientserver.codec;
+
+import org.junit.Test;
+import ru.gb.java3.clientserver.Command;
+import ru.gb.java3.clientserver.CommandType;
+import ru.gb.java3.clientserver.command.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CommandCodecTest {
+
+    @Test
+    public void authRoundTrip() throws IOException {
+        Command command = Command.authCommand("login1", "pass1");
+        AuthCommand auth = (AuthCommand) command.getData();
+        auth.setID(300);
+        auth.setUsername("nick1");
+
+        AuthCommand decoded = (AuthCommand) roundTrip(command).getData();
+        assertEquals("login1", decoded.getLogin());
+        assertEquals("pass1", decoded.getPassword());
+        assertEquals(300, decoded.getID());
+        assertEquals("nick1", decoded.getUsername());
+    }
+
+    //null и пустая строка кодируются по-разному
+    @Test
+    public void nullAndEmptyStringsSurvive() throws IOException {
+        MessageCommand decoded = (MessageCommand) roundTrip(Command.messageCommand(null, "")).getData();
+        assertNull(decoded.getUsername());
+        assertEquals("", decoded.getMessage());
+    }
+
+    @Test
+    public void unicodeMessageRoundTrip() throws IOException {
+        String text = "Привет, мир! 😀 " + String.join("", Collections.nCopies(1000, "ё"));
+        PrivateMessageCommand decoded = (PrivateMessageCommand) roundTrip(Command.privateMessageCommand("ник", text)).getData();
+        assertEquals("ник", decoded.getReceiver());
+        assertEquals(text, decoded.getMessage());
+    }
+
+    @Test
+    public void userListRoundTrip() throws IOException {
+        List<String> users = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            users.add("nick" + i);
+        }
+        assertEquals(users, ((UpdateUsersListCommand) roundTrip(Command.updateUsersListCommand(users)).getData()).getUsers());
+        assertTrue(((UpdateUsersListCommand) roundTrip(Command.updateUsersListCommand(new ArrayList<>())).getData()).getUsers().isEmpty());
+    }
+
+    @Test
+    public void historyRoundTripKeepsLongValues() throws IOException {
+        long time = 1_700_000_000_000L;
+        HistoryRequestCommand request = (HistoryRequestCommand) roundTrip(
+                Command.historyRequestCommand("nick2", Long.MAX_VALUE, time, true, 200)).getData();
+        assertEquals("nick2", request.getPeer());
+        assertEquals(Long.MAX_VALUE, request.getAnchorId());
+        assertEquals(time, request.getAnchorTime());
+        assertTrue(request.isOlder());
+        assertEquals(200, request.getLimit());
+
+        List<HistoryMessage> messages = Arrays.asList(
+                new HistoryMessage(1L << 40, time, "nick1", null, "всем"),
+                new HistoryMessage((1L << 40) + 1, time + 1, "nick1", "nick2", "лично"));
+        HistoryPageCommand page = (HistoryPageCommand) roundTrip(Command.historyPageCommand(null, messages, 7)).getData();
+        assertNull(page.getPeer());
+        assertEquals(7, page.getNextAnchorId());
+        assertEquals(2, page.getMessages().size());
+        HistoryMessage second = page.getMessages().get(1);
+        assertEquals((1L << 40) + 1, second.getId());
+        assertEquals(time + 1, second.getTimestamp());
+        assertEquals("nick1", second.getSender());
+        assertEquals("nick2", second.getReceiver());
+        assertEquals("лично", second.getMessage());
+        assertNull(page.getMessages().get(0).getReceiver());
+    }
+
+    @Test
+    public void everyTypeWithoutPayloadRoundTrips() throws IOException {
+        assertEquals(CommandType.END, roundTrip(Command.endCommand()).getType());
+        assertEquals(CommandType.USER_LEFT, roundTrip(Command.userLeftCommand("nick")).getType());
+        UserRenamedCommand renamed = (UserRenamedCommand) roundTrip(Command.userRenamedCommand("old", "new")).getData();
+        assertEquals("old", renamed.getOldUsername());
+        assertEquals("new", renamed.getNewUsername());
+    }
+
+    //несколько кадров подряд в одном потоке читаются по одному
+    @Test
+    public void streamOfFrames() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CommandCodec.write(out, Command.broadcastMessage("first"));
+        CommandCodec.write(out, Command.userJoinedCommand("nick"));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals("first", ((BroadcastMessageCommand) CommandCodec.read(in).getData()).getMessage());
+        assertEquals("nick", ((UserJoinedCommand) CommandCodec.read(in).getData()).getUsername());
+        try {
+            CommandCodec.read(in);
+            fail("поток кончился, ждали EOFException");
+        } catch (EOFException expected) {
+            //кадров больше нет
+        }
+    }
+
+    @Test
+    public void peekBodyLengthWaitsForWholeHeader() throws IOException {
+        //тело длиннее 127 байт, заголовок длины в два байта
+        byte[] frame = CommandCodec.encode(Command.broadcastMessage(String.join("", Collections.nCopies(200, "x"))));
+        assertEquals(2, CommandCodec.headerLength(frame.length - 2));
+
+        ByteBuffer partial = ByteBuffer.wrap(frame, 0, 1);
+        assertEquals(-1, CommandCodec.peekBodyLength(partial));
+        ByteBuffer whole = ByteBuffer.wrap(frame);
+        assertEquals(frame.length - 2, CommandCodec.peekBodyLength(whole));
+        assertEquals(0, whole.position());
+    }
+
+    @Test(expected = CommandFormatException.class)
+    public void unknownTypeIsRejected() throws IOException {
+        decode(new byte[]{0x7F});
+    }
+
+    @Test(expected = CommandFormatException.class)
+    public void emptyBodyIsRejected() throws IOException {
+        decode(new byte[0]);
+    }
+
+    @Test(expected = CommandFormatException.class)
+    public void truncatedBodyIsRejected() throws IOException {
+        byte[] body = body(Command.messageCommand("nick", "hello"));
+        decode(Arrays.copyOf(body, body.length - 2));
+    }
+
+    @Test(expected = CommandFormatException.class)
+    public void trailingBytesAreRejected() throws IOException {
+        byte[] body = body(Command.userJoinedCommand("nick"));
+        decode(Arrays.copyOf(body, body.length + 1));
+    }
+
+    //длина строки больше, чем осталось в теле
+    @Test(expected = CommandFormatException.class)
+    public void stringLongerThanBodyIsRejected() throws IOException {
+        decode(new byte[]{(byte) CommandType.USER_JOINED.getCode(), 100, 'a', 'b'});
+    }
+
+    //размер списка не может быть больше длины тела, память под него не выделяется
+    @Test(expected = CommandFormatException.class)
+    public void hugeListSizeIsRejected() throws IOException {
+        decode(new byte[]{(byte) CommandType.UPDATE_USER_LIST.getCode(), (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07});
+    }
+
+    @Test(expected = CommandFormatException.class)
+    public void malformedVarintIsRejected() throws IOException {
+        decode(new byte[]{(byte) CommandType.CAPABILITIES.getCode(), (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01});
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void frameLongerThanLimitIsRejected() throws IOException {
+        //varint 2 МБ: 0x80 0x80 0x80 0x01
+        CommandCodec.read(new DataInputStream(new ByteArrayInputStream(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01})));
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void malformedFrameLengthIsRejected() throws IOException {
+        byte[] header = {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01};
+        CommandCodec.peekBodyLength(ByteBuffer.wrap(header));
+    }
+
+    private static Command roundTrip(Command command) throws IOException {
+        return CommandCodec.read(new DataInputStream(new ByteArrayInputStream(CommandCodec.encode(command))));
+    }
+
+    //тело кадра без заголовка длины
+    private static byte[] body(Command command) throws IOException {
+        byte[] frame = CommandCodec.encode(command);
+        int bodyLength = CommandCodec.peekBodyLength(ByteBuffer.wrap(frame));
+        return Arrays.copyOfRange(frame, CommandCodec.headerLength(bodyLength), frame.length);
+    }
+
+    private static Command decode(byte[] body) throws CommandFormatException {
+        return CommandCodec.decode(body, 0, body.length);
+    }
+}
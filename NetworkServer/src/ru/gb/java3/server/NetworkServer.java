@@ -1,128 +1,697 @@
 package ru.gb.java3.server;
 
 import ru.gb.java3.clientserver.Command;
+import ru.gb.java3.clientserver.command.HistoryMessage;
+import ru.gb.java3.clientserver.command.HistoryRequestCommand;
+import ru.gb.java3.clientserver.codec.Frame;
+import ru.gb.java3.server.admission.AdmissionControl;
+import ru.gb.java3.server.auth.AsyncAuthService;
 import ru.gb.java3.server.auth.AuthService;
 import ru.gb.java3.server.auth.BaseAuthService;
+import ru.gb.java3.server.auth.CachingAuthService;
+import ru.gb.java3.server.auth.EmbeddedAuthService;
+import ru.gb.java3.server.auth.PooledAuthService;
 import ru.gb.java3.server.client.ClientHandler;
+import ru.gb.java3.server.client.ClientRegistry;
+import ru.gb.java3.server.cluster.ClusterListener;
+import ru.gb.java3.server.cluster.ClusterNode;
+import ru.gb.java3.server.history.HistoryPage;
+import ru.gb.java3.server.history.MessageLog;
+import ru.gb.java3.server.history.StoredMessage;
+import ru.gb.java3.server.room.Room;
+import ru.gb.java3.server.room.RoomRegistry;
+import ru.gb.java3.server.log.ServerLogging;
+import ru.gb.java3.server.timer.HashedWheelTimer;
+import ru.gb.java3.server.transport.OutboundQueue;
+import ru.gb.java3.server.transport.ReactorTransport;
+import ru.gb.java3.server.transport.VirtualThreads;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 import java.util.logging.*;
 
 public class NetworkServer {
     private static final Logger logger = Logger.getLogger(NetworkServer.class.getName());
+    //чтение истории с диска: потоков, очередь запросов, сообщений на странице
+    private static final int HISTORY_THREADS = 2;
+    private static final int HISTORY_QUEUE = 256;
+    private static final int HISTORY_SHUTDOWN_SECONDS = 5;
+    private static final int MAX_HISTORY_PAGE = 200;
+    //страница должна с запасом влезть в кадр
+    private static final int MAX_HISTORY_PAGE_BYTES = 512 * 1024;
+    private static final int MAX_ROOM_NAME = 64;
+    private static final int MAX_ROOMS_PER_CLIENT = 32;
     private final int port;
-    private final List<ClientHandler> clients = new ArrayList<>();
-    private final AuthService authService;
+    private final ClientRegistry clients = new ClientRegistry();
+    private final RoomRegistry rooms = new RoomRegistry();
+    private final AsyncAuthService authService;
+    private final ServerConfig config;
+    //таймауты авторизации всех соединений
+    private final HashedWheelTimer timer;
+    private final AdmissionControl admission;
+    private final MessageLog messageLog; //null - история на сервере не хранится
+    private final ExecutorService historyExecutor;
+    private final ClusterNode cluster; //null - одиночный сервер
+    //чтобы снимки списка пользователей уходили в том же порядке, в каком менялся состав.
+    //под ней идет рассылка всем клиентам и соседям по кластеру, так что входы при наплыве
+    //подолгу стоят в очереди на нее; ReentrantLock, чтобы это не были занятые несущие потоки
+    private final ReentrantLock presenceLock = new ReentrantLock();
+    private ExecutorService sessionExecutor; //только в режиме VIRTUAL
+    private ExecutorService writerExecutor; //запись в сокеты в режимах BLOCKING и VIRTUAL
 
     //конструктор
     public NetworkServer(int port) {
+        this(port, new ServerConfig());
+    }
+
+    public NetworkServer(int port, ServerConfig config) {
         this.port = port;
-        this.authService = new BaseAuthService();
+        this.config = config;
+        this.authService = new AsyncAuthService(createAuthService(config), config.getAuthThreads(), config.getAuthQueueDepth());
+        this.timer = new HashedWheelTimer("timer", config.getTimerTickMillis(), TimeUnit.MILLISECONDS, config.getTimerWheelSize());
+        this.messageLog = config.isHistoryEnabled() ? new MessageLog(config.getHistoryDirectory(),
+                config.getHistorySegmentMegabytes() * 1024L * 1024L,
+                TimeUnit.DAYS.toMillis(config.getHistoryRetentionDays()),
+                config.getHistoryMaxSegments(), config.isHistorySync(), config.getHistoryMaxPending()) : null;
+        this.historyExecutor = messageLog == null ? null : new ThreadPoolExecutor(HISTORY_THREADS, HISTORY_THREADS,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(HISTORY_QUEUE), r -> {
+                    Thread thread = new Thread(r, "history");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.admission = new AdmissionControl(config.getMaxUnauthenticated(), config.getAuthBurst(),
+                config.getAuthPerMinute(), config.getAdmissionRetrySeconds());
+        String nodeId = config.getClusterNodeId().isEmpty() ? "node-" + port : config.getClusterNodeId();
+        this.cluster = config.getClusterPort() > 0
+                ? new ClusterNode(nodeId, config.getClusterBind(), config.getClusterPort(),
+                        config.getClusterPeers(), config.getClusterSecret(), new ClusterEvents()) : null;
+    }
+
+    private static AuthService createAuthService(ServerConfig config) {
+        AuthService backend;
+        switch (config.getAuthBackend()) {
+            case "embedded":
+                //поиск в памяти быстрее любого кэша
+                return new EmbeddedAuthService(config.getEmbeddedDirectory(), config.getEmbeddedSeedUsers(), config.isEmbeddedSync());
+            case "base":
+                backend = new BaseAuthService();
+                break;
+            default:
+                backend = new PooledAuthService(config.getDbPoolSize(), config.getDbAcquireTimeoutMillis(), config.getDbQueryTimeoutSeconds());
+        }
+        if (config.getAuthCacheSize() <= 0) {
+            return backend;
+        }
+        return new CachingAuthService(backend, config.getAuthCacheSize(),
+                TimeUnit.SECONDS.toMillis(config.getAuthCacheTtlSeconds()),
+                TimeUnit.SECONDS.toMillis(config.getAuthNegativeTtlSeconds()));
     }
 
     //запуск
     public void go() {
         setLogger();
+        timer.start();
+        scheduleAdmissionSweep();
+        if (messageLog != null) {
+            messageLog.start();
+        }
+        if (cluster != null) {
+            try {
+                cluster.start();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось открыть порт кластера " + config.getClusterPort(), e);
+            }
+        }
+        try {
+            switch (config.getMode()) {
+                case REACTOR:
+                    goReactor();
+                    break;
+                case VIRTUAL:
+                    goVirtual();
+                    break;
+                default:
+                    goBlocking();
+            }
+        } finally {
+            if (cluster != null) {
+                cluster.stop();
+            }
+            timer.stop();
+            if (messageLog != null) {
+                stopHistoryReaders();
+                messageLog.stop();
+            }
+        }
+    }
+
+    //без прерываний: прерванное чтение FileChannel закрывает канал сегмента,
+    //и последняя запись журнала при остановке уже не проходит
+    private void stopHistoryReaders() {
+        historyExecutor.shutdown();
+        try {
+            if (!historyExecutor.awaitTermination(HISTORY_SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+                logger.log(Level.WARNING, "Чтение истории не завершилось за {0} с", HISTORY_SHUTDOWN_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //для сервера, который не запускали через go() (замеры, стенды): потоки авторизации,
+    //таймер и журнал истории освобождаются здесь. go() освобождает их сам
+    public void shutdown() {
+        timer.stop();
+        authService.stop();
+        if (messageLog != null) {
+            stopHistoryReaders();
+            messageLog.stop();
+        }
+    }
+
+    //ведра попыток входа неактивных адресов чистятся раз в минуту
+    private void scheduleAdmissionSweep() {
+        timer.newTimeout(() -> {
+            admission.evictIdleBuckets();
+            scheduleAdmissionSweep();
+        }, 1, TimeUnit.MINUTES);
+    }
+
+    private void goReactor() {
+        try {
+            authService.start();
+            logger.log(Level.INFO,"Сервис аутентификации запущен");
+            new ReactorTransport(this, port, config.getWorkerThreads()).run();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Ошибка при работе сервера.", e);
+        } finally {
+            authService.stop();
+            logger.log(Level.INFO,"Сервис аутентификации остановлен");
+        }
+    }
+
+    //тот же цикл приема, но чтение и запись клиентов идут в виртуальных потоках
+    private void goVirtual() {
+        sessionExecutor = VirtualThreads.newThreadPerTaskExecutor("client-");
+        writerExecutor = VirtualThreads.newThreadPerTaskExecutor("writer-");
+        try {
+            acceptBlocking();
+        } finally {
+            sessionExecutor.shutdownNow();
+        }
+    }
+
+    //поток пула занят, только пока в очереди клиента есть кадры. потоков не больше writerThreads:
+    //зависшая запись прерывается через writeTimeout, остальные клиенты ждут в очереди пула
+    private void goBlocking() {
+        ThreadPoolExecutor writers = new ThreadPoolExecutor(config.getWriterThreads(), config.getWriterThreads(),
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "writer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        writers.allowCoreThreadTimeOut(true);
+        writerExecutor = writers;
+        acceptBlocking();
+    }
+
+    private void acceptBlocking() {
         try (ServerSocket serverSocket = new ServerSocket(port)){
-            System.out.println("Сервер был успешно создан. Порт: " + port);
-            logger.log(Level.INFO,"Сервер был успешно создан. Порт: " + port );
+            logger.log(Level.INFO,"Сервер был успешно создан. Порт: {0,number,#}", port);
             authService.start();
             logger.log(Level.INFO,"Сервис аутентификации запущен");
             while(true){
-                System.out.println("Ожидание клиентского подключения...");
-                logger.log(Level.INFO,"Ожидание клиентского подключения...");
+                logger.log(Level.FINE,"Ожидание клиентского подключения...");
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("Клиент подключился...");
-                logger.log(Level.INFO,"Клиент подключился...");
+                if (logger.isLoggable(Level.INFO)) {
+                    logger.log(Level.INFO,"Клиент подключился {0}", clientSocket.getRemoteSocketAddress());
+                }
                 createClientHandler(clientSocket);
             }
         } catch (IOException e) {
-            System.out.println("Ошибка при работе сервера.");
-            logger.log(Level.SEVERE, "Ошибка при работе сервера.");
-            e.printStackTrace();
+            logger.log(Level.SEVERE, "Ошибка при работе сервера.", e);
         } finally {
+            writerExecutor.shutdownNow();
             authService.stop();
             logger.log(Level.INFO,"Сервис аутентификации остановлен");
         }
     }
 
     private void setLogger() {
-        Handler handler = null;
-        try {
-            handler = new FileHandler("networkclientlog.log", true);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        handler.setFormatter(new SimpleFormatter());
-        logger.addHandler(handler);
-        logger.setLevel(Level.FINEST);
-        logger.getHandlers()[0].setLevel(Level.INFO);
-
+        ServerLogging.addFileHandler(logger, "networkclientlog.log");
     }
 
     //создание обработчика клиентского подключения
     private void createClientHandler(Socket clientSocket) {
         ClientHandler clientHandler = new ClientHandler(this, clientSocket);
-        clientHandler.go();
+        if (sessionExecutor != null) {
+            clientHandler.go(sessionExecutor);
+        } else {
+            clientHandler.go();
+        }
     }
 
-    public AuthService getAuthService() {
+    public AsyncAuthService getAuthService() {
         return authService;
     }
 
-    //разослать сообщение всем клиентам
-    public synchronized void broadcastMessage(Command message, ClientHandler owner) throws IOException{
-        for(ClientHandler client : clients ){
+    public boolean isCompressionEnabled() {
+        return config.isCompressionEnabled();
+    }
+
+    public AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    public HashedWheelTimer getTimer() {
+        return timer;
+    }
+
+    public long getWriteTimeoutMillis() {
+        return TimeUnit.SECONDS.toMillis(config.getWriteTimeoutSeconds());
+    }
+
+    public ExecutorService getWriterExecutor() {
+        return writerExecutor;
+    }
+
+    public OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(config.getOutboundQueueCapacity(), config.getOverflowPolicy());
+    }
+
+    //сообщение пользователя в общий чат: рассылка и запись в историю
+    public void broadcastChatMessage(ClientHandler sender, String message) throws IOException {
+        broadcastMessage(Command.messageCommand(sender.getUserName(), message), sender);
+        if (cluster != null) {
+            cluster.forwardBroadcast(sender.getUserId(), sender.getUserName(), message);
+        }
+        if (messageLog != null) {
+            messageLog.append(sender.getUserId(), sender.getUserName(), StoredMessage.BROADCAST, null, message);
+        }
+    }
+
+    //приват. в историю попадает, только если получатель в чате и сообщение ушло.
+    //каждый узел хранит переписку своих пользователей: приват на другой узел сохраняется
+    //здесь при отправке (id получателя неизвестен, ищется по нику), там - при доставке
+    public void sendPrivateMessage(ClientHandler sender, String receiver, String message) throws IOException {
+        ClientHandler client = clients.getByNick(receiver);
+        if (client == null) {
+            if (cluster != null && cluster.routePrivate(sender.getUserId(), sender.getUserName(), receiver, message)
+                    && messageLog != null) {
+                messageLog.append(sender.getUserId(), sender.getUserName(), StoredMessage.REMOTE_RECEIVER, receiver, message);
+            }
+            return;
+        }
+        client.sendMessage(Command.messageCommand(sender.getUserName(), message));
+        if (messageLog != null) {
+            messageLog.append(sender.getUserId(), sender.getUserName(), client.getUserId(), client.getUserName(), message);
+        }
+    }
+
+    //вошедший получает состав комнаты, остальные участники - одно уведомление
+    public void joinRoom(ClientHandler client, String room) throws IOException {
+        if (!isValidRoomName(room)) {
+            client.sendMessage(Command.errorCommand("Недопустимое имя комнаты"));
+            return;
+        }
+        if (client.getRooms().size() >= MAX_ROOMS_PER_CLIENT) {
+            client.sendMessage(Command.errorCommand("Нельзя быть больше чем в " + MAX_ROOMS_PER_CLIENT + " комнатах"));
+            return;
+        }
+        boolean joined = rooms.join(room, client, joinedRoom -> {
+            client.getRooms().add(room);
+            sendQuietly(client, Command.roomMembersCommand(room, joinedRoom.getMemberNames()));
+            sendToRoom(joinedRoom, Frame.encode(Command.roomJoinCommand(room, client.getUserName())), client);
+        });
+        if (!joined) {
+            client.sendMessage(Command.errorCommand("Вы уже в комнате " + room));
+        }
+    }
+
+    //ушедший тоже получает ROOM_LEAVE как подтверждение
+    public void leaveRoom(ClientHandler client, String room) throws IOException {
+        if (!isValidRoomName(room)) {
+            client.sendMessage(Command.errorCommand("Недопустимое имя комнаты"));
+            return;
+        }
+        if (!leave(client, room)) {
+            client.sendMessage(Command.errorCommand("Вы не в комнате " + room));
+        }
+    }
+
+    private static boolean isValidRoomName(String room) {
+        return room != null && !room.trim().isEmpty() && room.length() <= MAX_ROOM_NAME;
+    }
+
+    private boolean leave(ClientHandler client, String room) {
+        return rooms.leave(room, client, leftRoom -> {
+            client.getRooms().remove(room);
+            Frame frame = Frame.encode(Command.roomLeaveCommand(room, client.getUserName()));
+            sendQuietly(client, frame);
+            sendToRoom(leftRoom, frame, null);
+        });
+    }
+
+    //рассылка только участникам комнаты, остальных клиентов она не касается
+    public void sendRoomMessage(ClientHandler sender, String room, String message) throws IOException {
+        Room target = rooms.get(room);
+        if (target == null || !target.contains(sender)) {
+            sender.sendMessage(Command.errorCommand("Вы не в комнате " + room));
+            return;
+        }
+        sendToRoom(target, Frame.encode(Command.roomMessageCommand(room, sender.getUserName(), message)), sender);
+    }
+
+    //сбой отправки одному участнику не мешает остальным
+    private void sendToRoom(Room room, Frame frame, ClientHandler except) {
+        for (ClientHandler member : room.getMembers()) {
+            if (member != except) {
+                sendQuietly(member, frame);
+            }
+        }
+    }
+
+    private static void sendQuietly(ClientHandler client, Command command) {
+        sendQuietly(client, Frame.encode(command));
+    }
+
+    //соединение здесь не закрываем: вызов идет под блокировкой комнаты, а закрытие
+    //выводит клиента из всех его комнат. разорванное соединение закроет свой поток
+    private static void sendQuietly(ClientHandler client, Frame frame) {
+        try {
+            client.sendFrame(frame);
+        } catch (IOException e) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE, "Не удалось отправить кадр клиенту {0}", client.getUserName());
+            }
+        }
+    }
+
+    //страница истории читается с диска в отдельном пуле, поток клиента не ждет
+    public void requestHistory(ClientHandler client, HistoryRequestCommand request) throws IOException {
+        if (messageLog == null) {
+            client.sendMessage(Command.errorCommand("История на сервере не хранится"));
+            return;
+        }
+        try {
+            historyExecutor.execute(() -> sendHistoryPage(client, request));
+        } catch (RejectedExecutionException e) {
+            client.sendMessage(Command.errorCommand("Сервер перегружен, повторите запрос истории позже"));
+        }
+    }
+
+    private void sendHistoryPage(ClientHandler client, HistoryRequestCommand request) {
+        int limit = Math.max(1, Math.min(request.getLimit(), MAX_HISTORY_PAGE));
+        HistoryPage page = messageLog.readPage(conversationFilter(client, request.getPeer()),
+                request.getAnchorId(), request.getAnchorTime(), request.isOlder(), limit);
+        List<StoredMessage> stored = page.getMessages();
+        long nextAnchorId = page.getNextAnchorId();
+        //слишком большую страницу обрезаем со стороны, дальней от опорной точки
+        int bytes = 0;
+        int kept = 0;
+        while (kept < stored.size()) {
+            StoredMessage message = stored.get(request.isOlder() ? stored.size() - 1 - kept : kept);
+            bytes += 32 + 3 * (length(message.getSenderNick()) + length(message.getReceiverNick()) + length(message.getText()));
+            if (bytes > MAX_HISTORY_PAGE_BYTES && kept > 0) {
+                nextAnchorId = stored.get(request.isOlder() ? stored.size() - kept : kept - 1).getId();
+                stored = request.isOlder() ? stored.subList(stored.size() - kept, stored.size()) : stored.subList(0, kept);
+                break;
+            }
+            kept++;
+        }
+        List<HistoryMessage> messages = new ArrayList<>(stored.size());
+        for (StoredMessage message : stored) {
+            messages.add(new HistoryMessage(message.getId(), message.getTimestamp(),
+                    message.getSenderNick(), message.getReceiverNick(), message.getText()));
+        }
+        try {
+            client.sendMessage(Command.historyPageCommand(request.getPeer(), messages, nextAnchorId));
+        } catch (IOException e) {
+            client.closeConnection();
+        }
+    }
+
+    //peer == null - общий чат. переписку с пользователем в сети ищем по id,
+    //с тем, кого сейчас нет, - по нику на момент отправки
+    private Predicate<StoredMessage> conversationFilter(ClientHandler client, String peer) {
+        int userId = client.getUserId();
+        if (peer == null) {
+            return StoredMessage::isBroadcast;
+        }
+        ClientHandler peerClient = clients.getByNick(peer);
+        if (peerClient != null) {
+            int peerId = peerClient.getUserId();
+            //отправленное, пока собеседник был на другом узле, записано с его ником
+            return message -> !message.isBroadcast()
+                    && (message.getSenderId() == userId && (message.getReceiverId() == peerId
+                    || message.getReceiverId() == StoredMessage.REMOTE_RECEIVER && peer.equals(message.getReceiverNick()))
+                    || message.getSenderId() == peerId && message.getReceiverId() == userId);
+        }
+        return message -> !message.isBroadcast()
+                && (message.getSenderId() == userId && peer.equals(message.getReceiverNick())
+                || message.getReceiverId() == userId && peer.equals(message.getSenderNick()));
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    //разослать сообщение всем клиентам. команда кодируется один раз, получатели делят один кадр.
+    //обход реестра без блокировок
+    public void broadcastMessage(Command message, ClientHandler owner) throws IOException{
+        Frame frame = Frame.encode(message);
+        for(ClientHandler client : clients.getClients()){
             if(client != owner) {
-                client.sendMessage(message);
+                client.sendFrame(frame);
             }
         }
     }
 
+    //занять ник при авторизации. false - пользователь с таким ником уже в чате.
+    //в кластере проверяются и другие узлы; одновременный вход на двух узлах
+    //разрешается потом, при обмене присутствием
+    public boolean register(ClientHandler clientHandler, String nick, int id) {
+        if (cluster != null && cluster.isNickBusy(nick)) {
+            return false;
+        }
+        return clients.register(clientHandler, nick, id);
+    }
+
+    //занять новый ник на время запроса в базу, старый остается за клиентом. false - новый ник занят
+    public boolean reserveNick(ClientHandler clientHandler, String newNick) {
+        if (cluster != null && cluster.isNickBusy(newNick)) {
+            return false;
+        }
+        return clients.reserve(clientHandler, newNick);
+    }
 
-    //для подключения после авторизации
-    public synchronized void subscribe(ClientHandler clientHandler) throws IOException {
-        clients.add(clientHandler);
-        List<String> users = getAllUserNames();
-        broadcastMessage(Command.updateUsersListCommand(users), null);
+    //освободить ник клиента: старый после смены в базе или новый после отказа
+    public void releaseNick(ClientHandler clientHandler, String nick) {
+        clients.release(clientHandler, nick);
+    }
+
+    //для подключения после авторизации (ник уже занят через register).
+    //полный список получает только новый клиент, остальным уходит одно изменение
+    public void subscribe(ClientHandler clientHandler) throws IOException {
+        presenceLock.lock();
+        try {
+            clientHandler.sendMessage(Command.updateUsersListCommand(getAllUserNames()));
+            broadcastMessage(Command.userJoinedCommand(clientHandler.getUserName()), clientHandler);
+            if (cluster != null) {
+                cluster.userJoined(clientHandler.getUserName(), clientHandler.getNickSince());
+            }
+        } finally {
+            presenceLock.unlock();
+        }
     }
 
     //для исключения после выхода или разрыва соединения
-    public synchronized void unsubscribe(ClientHandler clientHandler) throws IOException {
-        clients.remove(clientHandler);
-        List<String> users = getAllUserNames();
-        broadcastMessage(Command.updateUsersListCommand(users), null);
+    public void unsubscribe(ClientHandler clientHandler) throws IOException {
+        for (String room : clientHandler.getRooms()) {
+            leave(clientHandler, room);
+        }
+        presenceLock.lock();
+        try {
+            if (!clients.unregister(clientHandler)) {
+                return; //не успел авторизоваться
+            }
+            broadcastMessage(Command.userLeftCommand(clientHandler.getUserName()), clientHandler);
+            if (cluster != null) {
+                cluster.userLeft(clientHandler.getUserName());
+            }
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
+    //после успешной смены ника в базе и реестре
+    public void broadcastRename(ClientHandler clientHandler, String oldNick, String newNick) throws IOException {
+        presenceLock.lock();
+        try {
+            broadcastMessage(Command.userRenamedCommand(oldNick, newNick), clientHandler);
+            if (cluster != null) {
+                cluster.userRenamed(oldNick, newNick, clientHandler.getNickSince());
+            }
+        } finally {
+            presenceLock.unlock();
+        }
     }
 
+    //в кластере - пользователи всех узлов
     public List<String> getAllUserNames() {
-        List<String> usernames = new LinkedList<>();
-        for (ClientHandler clientHandler : clients) {
-            usernames.add(clientHandler.getUserName());
+        List<String> names = clients.getAllUserNames();
+        if (cluster != null) {
+            for (String nick : cluster.getRemoteUserNames()) {
+                if (!clients.isNickBusy(nick)) {
+                    names.add(nick);
+                }
+            }
         }
-        return usernames;
+        return names;
     }
 
     //приват
-    public synchronized  void sendMessage(String receiver, Command commandMessage) throws IOException {
-        for (ClientHandler client : clients) {
-            if(client.getUserName().equals(receiver)){
-                client.sendMessage(commandMessage);
-                break;
-            }
+    public void sendMessage(String receiver, Command commandMessage) throws IOException {
+        ClientHandler client = clients.getByNick(receiver);
+        if (client != null) {
+            client.sendMessage(commandMessage);
         }
     }
 
     public boolean isNickBusy(String username){
-        for (ClientHandler client : clients) {
-            if(client.getUserName().equals(username)){
-                return true;
+        return clients.isNickBusy(username) || cluster != null && cluster.isNickBusy(username);
+    }
+
+    //события других узлов: их пользователи для здешних клиентов выглядят как свои
+    private class ClusterEvents implements ClusterListener {
+        @Override
+        public long localNickSince(String nick) {
+            ClientHandler client = clients.getByNick(nick);
+            return client == null ? -1 : client.getNickSince();
+        }
+
+        @Override
+        public Map<String, Long> localUsers() {
+            Map<String, Long> users = new HashMap<>();
+            for (ClientHandler client : clients.getClients()) {
+                String nick = client.getUserName();
+                if (nick != null) { //ник уже занят в реестре, но клиент еще не опубликовал его у себя
+                    users.put(nick, client.getNickSince());
+                }
+            }
+            return users;
+        }
+
+        @Override
+        public void remoteUserJoined(String nick) {
+            presenceLock.lock();
+            try {
+                if (clients.isNickBusy(nick)) {
+                    return; //спор за ник, здешний вход отключат или уже отключили
+                }
+                broadcastMessage(Command.messageCommand(null, nick + " зашел в чат!"), null);
+                broadcastMessage(Command.userJoinedCommand(nick), null);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Ошибка рассылки присутствия", e);
+            } finally {
+                presenceLock.unlock();
+            }
+        }
+
+        @Override
+        public void remoteUserLeft(String nick) {
+            presenceLock.lock();
+            try {
+                if (!clients.isNickBusy(nick)) {
+                    broadcastMessage(Command.userLeftCommand(nick), null);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Ошибка рассылки присутствия", e);
+            } finally {
+                presenceLock.unlock();
+            }
+        }
+
+        @Override
+        public void remoteUserRenamed(String oldNick, String newNick) {
+            presenceLock.lock();
+            try {
+                broadcastMessage(Command.messageCommand(null, oldNick + " сменил ник на " + newNick), null);
+                broadcastMessage(Command.userRenamedCommand(oldNick, newNick), null);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Ошибка рассылки присутствия", e);
+            } finally {
+                presenceLock.unlock();
+            }
+        }
+
+        //старый ник база уже отдала, а новый мог быть в кэше за прежним владельцем
+        @Override
+        public void remoteNickChanged(String oldNick, String newNick) {
+            AuthService backend = authService.getDelegate();
+            if (backend instanceof CachingAuthService) {
+                ((CachingAuthService) backend).invalidateNick(oldNick);
+                ((CachingAuthService) backend).invalidateNick(newNick);
+            }
+        }
+
+        @Override
+        public void remoteBroadcast(int senderId, String sender, String message) {
+            try {
+                broadcastMessage(Command.messageCommand(sender, message), null);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Ошибка рассылки сообщения с другого узла", e);
+            }
+            if (messageLog != null) {
+                messageLog.append(senderId, sender, StoredMessage.BROADCAST, null, message);
+            }
+        }
+
+        @Override
+        public void remotePrivateMessage(int senderId, String sender, String receiver, String message) {
+            ClientHandler client = clients.getByNick(receiver);
+            if (client == null) {
+                return;
+            }
+            try {
+                client.sendMessage(Command.messageCommand(sender, message));
+            } catch (IOException e) {
+                client.closeConnection();
+                return;
+            }
+            //отправитель в сети на этом узле - значит, узел уже сохранил приват при отправке
+            if (messageLog != null && clients.getById(senderId) == null) {
+                messageLog.append(senderId, sender, client.getUserId(), client.getUserName(), message);
+            }
+        }
+
+        @Override
+        public void nickConflict(String nick) {
+            ClientHandler client = clients.getByNick(nick);
+            if (client == null) {
+                return;
+            }
+            try {
+                client.sendMessage(Command.errorCommand("Пользователь с ником " + nick + " уже вошел на другом узле"));
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Не удалось предупредить клиента {0}", nick);
             }
+            client.closeConnection();
         }
-        return false;
     }
 }
@@ -1,18 +1,29 @@
 package ru.gb.java3.server;
 
 
+import ru.gb.java3.server.log.ServerLogging;
+import ru.gb.java3.server.transport.ServerMode;
 
 public class ServerApp {
 
     private static final int DEFAULT_PORT = 4050;
+    //аргументы: [порт] [blocking|reactor|virtual] [pooled|base|embedded]
     public static void main(String[] args) {
         int port = getServerPort(args);
-        new NetworkServer(port).go();
+        ServerConfig config = ServerConfig.fromSystemProperties();
+        ServerLogging.install(config.getLogBufferSize());
+        if(args.length >= 2){
+            config.setMode(ServerMode.parse(args[1], config.getMode()));
+        }
+        if(args.length >= 3){
+            config.setAuthBackend(args[2].trim().toLowerCase());
+        }
+        new NetworkServer(port, config).go();
     }
 
     private static int getServerPort(String[] args) {
         int port = DEFAULT_PORT;
-        if(args.length ==1){
+        if(args.length >= 1){
             try {
                 port = Integer.parseInt(args[0]);
             } catch (NumberFormatException e) {
@@ -0,0 +1,444 @@
+package ru.gb.java3.server;
+
+import ru.gb.java3.server.transport.OverflowPolicy;
+import ru.gb.java3.server.transport.ServerMode;
+
+//настройки запуска сервера. задаются системными свойствами, например -Dchat.mode=reactor
+public class ServerConfig {
+    private ServerMode mode = ServerMode.BLOCKING;
+    private int workerThreads = Runtime.getRuntime().availableProcessors();
+    private int outboundQueueCapacity = 1024; //в кадрах
+    private int writerThreads = 64; //потоков записи в блокирующем режиме
+    private int writeTimeoutSeconds = 10; //клиент, который столько не принимает данные, отключается
+    private OverflowPolicy overflowPolicy = OverflowPolicy.COALESCE_PRESENCE;
+    private int timerTickMillis = 100;
+    private int timerWheelSize = 512;
+    private String authBackend = "pooled"; //pooled, base (одно общее соединение) или embedded (без MySQL)
+    private int dbPoolSize = 8;
+    private int dbAcquireTimeoutMillis = 5000;
+    private int dbQueryTimeoutSeconds = 5;
+    private int authCacheSize = 10000; //0 - без кэша
+    private int authCacheTtlSeconds = 300; //смены ника на других узлах кластера сбрасывают запись сразу
+    private int authNegativeTtlSeconds = 5;
+    private int authThreads = 8; //одновременных запросов к базе
+    private int authQueueDepth = 256; //сверх этого вход отклоняется сразу
+    private int maxUnauthenticated = 1000; //0 - без ограничения
+    private int authBurst = 5; //попыток AUTH с одного адреса подряд
+    private int authPerMinute = 30;
+    private int admissionRetrySeconds = 5;
+    private String embeddedDirectory = "data";
+    private int logBufferSize = 8192; //записей журнала в очереди, сверх этого - выбрасываются
+    private boolean historyEnabled = false; //сохранять сообщения чата, включая приваты, на диске сервера
+    private String historyDirectory = "history";
+    private int historySegmentMegabytes = 64;
+    private int historyRetentionDays = 30; //0 - хранить без ограничения по времени
+    private int historyMaxSegments = 0; //0 - без ограничения по количеству
+    private boolean historySync = true; //force() после каждой пачки
+    private int historyMaxPending = 65536; //сообщений в очереди на запись, сверх этого в историю не попадают
+    private int embeddedSeedUsers = 0; //создать loginN/passN/nickN в пустом хранилище
+    private boolean embeddedSync = true; //сбрасывать журнал на диск при каждой смене ника
+    private boolean compressionEnabled = true; //соглашаться на сжатие больших кадров, если клиент предложил
+    private String clusterNodeId = ""; //пусто - node-<порт клиентов>
+    private int clusterPort = 0; //порт для соединений других узлов, 0 - без кластера
+    private String clusterPeers = ""; //остальные узлы: host:port,host:port
+    private String clusterBind = ""; //адрес для соединений других узлов, пусто - все интерфейсы
+    private String clusterSecret = ""; //общий секрет узлов, без него кластер не запускается
+
+    public static ServerConfig fromSystemProperties() {
+        ServerConfig config = new ServerConfig();
+        config.mode = ServerMode.parse(System.getProperty("chat.mode"), config.mode);
+        config.workerThreads = intProperty("chat.workers", config.workerThreads);
+        config.outboundQueueCapacity = intProperty("chat.outbound.capacity", config.outboundQueueCapacity);
+        config.writerThreads = intProperty("chat.writers", config.writerThreads);
+        config.writeTimeoutSeconds = intProperty("chat.write.timeout", config.writeTimeoutSeconds);
+        config.overflowPolicy = OverflowPolicy.parse(System.getProperty("chat.outbound.policy"), config.overflowPolicy);
+        config.timerTickMillis = intProperty("chat.timer.tick", config.timerTickMillis);
+        config.timerWheelSize = intProperty("chat.timer.wheel", config.timerWheelSize);
+        config.authBackend = System.getProperty("chat.auth", config.authBackend).trim().toLowerCase();
+        config.dbPoolSize = intProperty("chat.db.pool.size", config.dbPoolSize);
+        config.dbAcquireTimeoutMillis = intProperty("chat.db.pool.timeout", config.dbAcquireTimeoutMillis);
+        config.dbQueryTimeoutSeconds = intProperty("chat.db.query.timeout", config.dbQueryTimeoutSeconds);
+        config.authCacheSize = intProperty("chat.auth.cache.size", config.authCacheSize);
+        config.authCacheTtlSeconds = intProperty("chat.auth.cache.ttl", config.authCacheTtlSeconds);
+        config.authNegativeTtlSeconds = intProperty("chat.auth.cache.negative.ttl", config.authNegativeTtlSeconds);
+        config.authThreads = intProperty("chat.auth.threads", config.authThreads);
+        config.authQueueDepth = intProperty("chat.auth.queue", config.authQueueDepth);
+        config.maxUnauthenticated = intProperty("chat.admission.unauth.max", config.maxUnauthenticated);
+        config.authBurst = intProperty("chat.admission.auth.burst", config.authBurst);
+        config.authPerMinute = intProperty("chat.admission.auth.rate", config.authPerMinute);
+        config.admissionRetrySeconds = intProperty("chat.admission.retry", config.admissionRetrySeconds);
+        config.embeddedDirectory = System.getProperty("chat.embedded.dir", config.embeddedDirectory);
+        config.logBufferSize = intProperty("chat.log.buffer", config.logBufferSize);
+        config.historyEnabled = Boolean.parseBoolean(System.getProperty("chat.history", String.valueOf(config.historyEnabled)));
+        config.historyDirectory = System.getProperty("chat.history.dir", config.historyDirectory);
+        config.historySegmentMegabytes = intProperty("chat.history.segment.mb", config.historySegmentMegabytes);
+        config.historyRetentionDays = intProperty("chat.history.retention.days", config.historyRetentionDays);
+        config.historyMaxSegments = intProperty("chat.history.retention.segments", config.historyMaxSegments);
+        config.historySync = Boolean.parseBoolean(System.getProperty("chat.history.sync", String.valueOf(config.historySync)));
+        config.historyMaxPending = intProperty("chat.history.pending", config.historyMaxPending);
+        config.embeddedSeedUsers = intProperty("chat.embedded.seed", config.embeddedSeedUsers);
+        config.embeddedSync = Boolean.parseBoolean(System.getProperty("chat.embedded.sync", String.valueOf(config.embeddedSync)));
+        config.compressionEnabled = Boolean.parseBoolean(System.getProperty("chat.compression", String.valueOf(config.compressionEnabled)));
+        config.clusterNodeId = System.getProperty("chat.cluster.node", config.clusterNodeId);
+        config.clusterPort = intProperty("chat.cluster.port", config.clusterPort);
+        config.clusterPeers = System.getProperty("chat.cluster.peers", config.clusterPeers);
+        config.clusterBind = System.getProperty("chat.cluster.bind", config.clusterBind);
+        config.clusterSecret = System.getProperty("chat.cluster.secret", config.clusterSecret);
+        return config;
+    }
+
+    static int intProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Некорректное значение " + name + "=" + value + ". Будет использоваться " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public ServerMode getMode() {
+        return mode;
+    }
+
+    public ServerConfig setMode(ServerMode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public ServerConfig setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    public int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    public ServerConfig setOutboundQueueCapacity(int outboundQueueCapacity) {
+        this.outboundQueueCapacity = outboundQueueCapacity;
+        return this;
+    }
+
+    public int getTimerTickMillis() {
+        return timerTickMillis;
+    }
+
+    public ServerConfig setTimerTickMillis(int timerTickMillis) {
+        this.timerTickMillis = timerTickMillis;
+        return this;
+    }
+
+    public int getTimerWheelSize() {
+        return timerWheelSize;
+    }
+
+    public ServerConfig setTimerWheelSize(int timerWheelSize) {
+        this.timerWheelSize = timerWheelSize;
+        return this;
+    }
+
+    public String getAuthBackend() {
+        return authBackend;
+    }
+
+    public ServerConfig setAuthBackend(String authBackend) {
+        this.authBackend = authBackend;
+        return this;
+    }
+
+    public int getDbPoolSize() {
+        return dbPoolSize;
+    }
+
+    public ServerConfig setDbPoolSize(int dbPoolSize) {
+        this.dbPoolSize = dbPoolSize;
+        return this;
+    }
+
+    public int getDbAcquireTimeoutMillis() {
+        return dbAcquireTimeoutMillis;
+    }
+
+    public ServerConfig setDbAcquireTimeoutMillis(int dbAcquireTimeoutMillis) {
+        this.dbAcquireTimeoutMillis = dbAcquireTimeoutMillis;
+        return this;
+    }
+
+    public int getDbQueryTimeoutSeconds() {
+        return dbQueryTimeoutSeconds;
+    }
+
+    public ServerConfig setDbQueryTimeoutSeconds(int dbQueryTimeoutSeconds) {
+        this.dbQueryTimeoutSeconds = dbQueryTimeoutSeconds;
+        return this;
+    }
+
+    public int getAuthCacheSize() {
+        return authCacheSize;
+    }
+
+    public ServerConfig setAuthCacheSize(int authCacheSize) {
+        this.authCacheSize = authCacheSize;
+        return this;
+    }
+
+    public int getAuthCacheTtlSeconds() {
+        return authCacheTtlSeconds;
+    }
+
+    public ServerConfig setAuthCacheTtlSeconds(int authCacheTtlSeconds) {
+        this.authCacheTtlSeconds = authCacheTtlSeconds;
+        return this;
+    }
+
+    public int getAuthNegativeTtlSeconds() {
+        return authNegativeTtlSeconds;
+    }
+
+    public ServerConfig setAuthNegativeTtlSeconds(int authNegativeTtlSeconds) {
+        this.authNegativeTtlSeconds = authNegativeTtlSeconds;
+        return this;
+    }
+
+    public int getAuthThreads() {
+        return authThreads;
+    }
+
+    public ServerConfig setAuthThreads(int authThreads) {
+        this.authThreads = authThreads;
+        return this;
+    }
+
+    public int getAuthQueueDepth() {
+        return authQueueDepth;
+    }
+
+    public ServerConfig setAuthQueueDepth(int authQueueDepth) {
+        this.authQueueDepth = authQueueDepth;
+        return this;
+    }
+
+    public int getMaxUnauthenticated() {
+        return maxUnauthenticated;
+    }
+
+    public ServerConfig setMaxUnauthenticated(int maxUnauthenticated) {
+        this.maxUnauthenticated = maxUnauthenticated;
+        return this;
+    }
+
+    public int getAuthBurst() {
+        return authBurst;
+    }
+
+    public ServerConfig setAuthBurst(int authBurst) {
+        this.authBurst = authBurst;
+        return this;
+    }
+
+    public int getAuthPerMinute() {
+        return authPerMinute;
+    }
+
+    public ServerConfig setAuthPerMinute(int authPerMinute) {
+        this.authPerMinute = authPerMinute;
+        return this;
+    }
+
+    public int getAdmissionRetrySeconds() {
+        return admissionRetrySeconds;
+    }
+
+    public ServerConfig setAdmissionRetrySeconds(int admissionRetrySeconds) {
+        this.admissionRetrySeconds = admissionRetrySeconds;
+        return this;
+    }
+
+    public String getEmbeddedDirectory() {
+        return embeddedDirectory;
+    }
+
+    public ServerConfig setEmbeddedDirectory(String embeddedDirectory) {
+        this.embeddedDirectory = embeddedDirectory;
+        return this;
+    }
+
+    public int getEmbeddedSeedUsers() {
+        return embeddedSeedUsers;
+    }
+
+    public ServerConfig setEmbeddedSeedUsers(int embeddedSeedUsers) {
+        this.embeddedSeedUsers = embeddedSeedUsers;
+        return this;
+    }
+
+    public boolean isEmbeddedSync() {
+        return embeddedSync;
+    }
+
+    public ServerConfig setEmbeddedSync(boolean embeddedSync) {
+        this.embeddedSync = embeddedSync;
+        return this;
+    }
+
+    public int getLogBufferSize() {
+        return logBufferSize;
+    }
+
+    public ServerConfig setLogBufferSize(int logBufferSize) {
+        this.logBufferSize = logBufferSize;
+        return this;
+    }
+
+    public boolean isHistoryEnabled() {
+        return historyEnabled;
+    }
+
+    public ServerConfig setHistoryEnabled(boolean historyEnabled) {
+        this.historyEnabled = historyEnabled;
+        return this;
+    }
+
+    public String getHistoryDirectory() {
+        return historyDirectory;
+    }
+
+    public ServerConfig setHistoryDirectory(String historyDirectory) {
+        this.historyDirectory = historyDirectory;
+        return this;
+    }
+
+    public int getHistorySegmentMegabytes() {
+        return historySegmentMegabytes;
+    }
+
+    public ServerConfig setHistorySegmentMegabytes(int historySegmentMegabytes) {
+        this.historySegmentMegabytes = historySegmentMegabytes;
+        return this;
+    }
+
+    public int getHistoryRetentionDays() {
+        return historyRetentionDays;
+    }
+
+    public ServerConfig setHistoryRetentionDays(int historyRetentionDays) {
+        this.historyRetentionDays = historyRetentionDays;
+        return this;
+    }
+
+    public int getHistoryMaxSegments() {
+        return historyMaxSegments;
+    }
+
+    public ServerConfig setHistoryMaxSegments(int historyMaxSegments) {
+        this.historyMaxSegments = historyMaxSegments;
+        return this;
+    }
+
+    public boolean isHistorySync() {
+        return historySync;
+    }
+
+    public ServerConfig setHistorySync(boolean historySync) {
+        this.historySync = historySync;
+        return this;
+    }
+
+    public int getHistoryMaxPending() {
+        return historyMaxPending;
+    }
+
+    public ServerConfig setHistoryMaxPending(int historyMaxPending) {
+        this.historyMaxPending = historyMaxPending;
+        return this;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public ServerConfig setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+        return this;
+    }
+
+    public String getClusterNodeId() {
+        return clusterNodeId;
+    }
+
+    public ServerConfig setClusterNodeId(String clusterNodeId) {
+        this.clusterNodeId = clusterNodeId;
+        return this;
+    }
+
+    public int getClusterPort() {
+        return clusterPort;
+    }
+
+    public ServerConfig setClusterPort(int clusterPort) {
+        this.clusterPort = clusterPort;
+        return this;
+    }
+
+    public String getClusterPeers() {
+        return clusterPeers;
+    }
+
+    public ServerConfig setClusterPeers(String clusterPeers) {
+        this.clusterPeers = clusterPeers;
+        return this;
+    }
+
+    public String getClusterBind() {
+        return clusterBind;
+    }
+
+    public ServerConfig setClusterBind(String clusterBind) {
+        this.clusterBind = clusterBind;
+        return this;
+    }
+
+    public String getClusterSecret() {
+        return clusterSecret;
+    }
+
+    public ServerConfig setClusterSecret(String clusterSecret) {
+        this.clusterSecret = clusterSecret;
+        return this;
+    }
+
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    public ServerConfig setWriterThreads(int writerThreads) {
+        this.writerThreads = writerThreads;
+        return this;
+    }
+
+    public int getWriteTimeoutSeconds() {
+        return writeTimeoutSeconds;
+    }
+
+    public ServerConfig setWriteTimeoutSeconds(int writeTimeoutSeconds) {
+        this.writeTimeoutSeconds = writeTimeoutSeconds;
+        return this;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public ServerConfig setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+}
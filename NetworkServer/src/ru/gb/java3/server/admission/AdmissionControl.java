@@ -0,0 +1,90 @@
+package ru.gb.java3.server.admission;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//защита от лавины переподключений: не больше maxUnauthenticated соединений без авторизации
+//и ведро попыток AUTH на каждый адрес. отказ дешевый: ни потока чтения, ни запроса в базу
+public class AdmissionControl {
+    private final int maxUnauthenticated;
+    private final int authBurst;
+    private final long authRefillNanos;
+    private final int retryAfterSeconds;
+    private final AtomicInteger unauthenticated = new AtomicInteger();
+    private final ConcurrentHashMap<InetAddress, TokenBucket> authBuckets = new ConcurrentHashMap<>();
+    private final AtomicLong rejectedSessions = new AtomicLong();
+    private final AtomicLong rejectedAuths = new AtomicLong();
+
+    //authPerMinute - сколько попыток AUTH в минуту восстанавливается адресу после исчерпания authBurst
+    public AdmissionControl(int maxUnauthenticated, int authBurst, int authPerMinute, int retryAfterSeconds) {
+        this.maxUnauthenticated = maxUnauthenticated;
+        this.authBurst = Math.max(1, authBurst);
+        this.authRefillNanos = TimeUnit.MINUTES.toNanos(1) / Math.max(1, authPerMinute);
+        this.retryAfterSeconds = Math.max(1, retryAfterSeconds);
+    }
+
+    //занять место неавторизованной сессии. false - мест нет
+    public boolean tryAdmitSession() {
+        if (maxUnauthenticated <= 0) {
+            unauthenticated.incrementAndGet();
+            return true;
+        }
+        while (true) {
+            int current = unauthenticated.get();
+            if (current >= maxUnauthenticated) {
+                rejectedSessions.incrementAndGet();
+                return false;
+            }
+            if (unauthenticated.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    //сессия авторизовалась или закрылась
+    public void releaseSession() {
+        unauthenticated.decrementAndGet();
+    }
+
+    //0 - попытка AUTH разрешена, иначе через сколько секунд можно повторить
+    public int tryAuthAttempt(InetAddress address) {
+        if (address == null) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        TokenBucket bucket = authBuckets.computeIfAbsent(address, a -> new TokenBucket(authBurst, authRefillNanos, now));
+        long waitNanos = bucket.tryAcquire(now);
+        if (waitNanos == 0) {
+            return 0;
+        }
+        rejectedAuths.incrementAndGet();
+        return (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+
+    //подсказка для отказа по общему лимиту. разброс, чтобы клиенты не вернулись все разом
+    public int sessionRetryAfterSeconds() {
+        return retryAfterSeconds + ThreadLocalRandom.current().nextInt(retryAfterSeconds + 1);
+    }
+
+    //выбросить ведра адресов, которые давно не пытались войти
+    public void evictIdleBuckets() {
+        long now = System.nanoTime();
+        authBuckets.values().removeIf(bucket -> bucket.isFull(now));
+    }
+
+    public int getUnauthenticatedSessions() {
+        return unauthenticated.get();
+    }
+
+    public long getRejectedSessions() {
+        return rejectedSessions.get();
+    }
+
+    public long getRejectedAuths() {
+        return rejectedAuths.get();
+    }
+}
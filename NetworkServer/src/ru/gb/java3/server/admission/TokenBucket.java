@@ -0,0 +1,55 @@
+package ru.gb.java3.server.admission;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+//ведро жетонов: capacity попыток подряд, дальше по одной каждые refillNanos.
+//при шторме переподключений с одного адреса за ведро спорят потоки чтения, в режиме VIRTUAL
+//виртуальные - поэтому ReentrantLock, а не монитор, хотя под ним только арифметика
+class TokenBucket {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int capacity;
+    private final long refillNanos;
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(int capacity, long refillNanos, long now) {
+        this.capacity = capacity;
+        this.refillNanos = refillNanos;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    //0 - жетон взят, иначе сколько наносекунд ждать следующего
+    long tryAcquire(long now) {
+        lock.lock();
+        try {
+            refill(now);
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) ((1 - tokens) * refillNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //полное ведро ничем не отличается от нового, его можно выбросить
+    boolean isFull(long now) {
+        lock.lock();
+        try {
+            refill(now);
+            return tokens >= capacity;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //под lock
+    private void refill(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (double) (now - lastRefill) / refillNanos);
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package ru.gb.java3.server.auth;
+
+import javafx.util.Pair;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+//асинхронная обертка над AuthService. запросы к базе идут в отдельном пуле
+//из threads потоков с очередью не длиннее queueDepth, потоки ввода-вывода не ждут базу.
+//при переполнении очереди future завершается RejectedExecutionException
+public class AsyncAuthService {
+    private final AuthService delegate;
+    private final ThreadPoolExecutor executor;
+
+    public AsyncAuthService(AuthService delegate, int threads, int queueDepth) {
+        this.delegate = delegate;
+        AtomicInteger counter = new AtomicInteger();
+        int size = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueDepth)),
+                r -> {
+                    Thread thread = new Thread(r, "auth-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public CompletableFuture<Pair<Integer, String>> getUserNameByLoginAndPass(String login, String pass) {
+        return submit(() -> delegate.getUserNameByLoginAndPass(login, pass));
+    }
+
+    public CompletableFuture<Boolean> changeCurrentNickname(String login, String pass, String newNick) {
+        return submit(() -> delegate.changeCurrentNickname(login, pass, newNick));
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> query) {
+        try {
+            return CompletableFuture.supplyAsync(query, executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    //запросы, ждущие свободного потока
+    public int getQueuedRequests() {
+        return executor.getQueue().size();
+    }
+
+    public AuthService getDelegate() {
+        return delegate;
+    }
+
+    public void start() {
+        delegate.start();
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+        delegate.stop();
+    }
+}
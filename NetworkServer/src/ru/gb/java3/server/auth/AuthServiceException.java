@@ -0,0 +1,9 @@
+package ru.gb.java3.server.auth;
+
+//сбой хранилища учетных записей (нет соединения, таймаут пула или запроса).
+//в отличие от null/false это не ответ "нет такого пользователя", кэшировать его нельзя
+public class AuthServiceException extends RuntimeException {
+    public AuthServiceException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -51,7 +51,8 @@ public class BaseAuthService extends Config implements AuthService {
                 return pair;
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            //сбой базы - не "нет такого пользователя", иначе кэш запомнил бы его как отказ
+            throw new AuthServiceException("Сбой базы во время проверки логина", e);
         }
         return null;
     }
@@ -73,7 +74,11 @@ public class BaseAuthService extends Config implements AuthService {
             }
 
         } catch (SQLException e) {
-            e.printStackTrace();
+            String state = e.getSQLState();
+            if (state == null || !state.startsWith("23")) {
+                throw new AuthServiceException("Сбой базы во время смены ника", e);
+            }
+            //нарушение ограничения (ник занят) - обычный отказ
         }
         return false;
     }
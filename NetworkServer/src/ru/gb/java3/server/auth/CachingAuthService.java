@@ -0,0 +1,241 @@
+package ru.gb.java3.server.auth;
+
+import javafx.util.Pair;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//кэш поверх любого AuthService. удачные входы живут ttl, неудачные - negativeTtl,
+//при переполнении выкидываются давно не использованные записи.
+//пароль в памяти не хранится, только его SHA-256.
+//смену ника через этот сервис кэш видит сразу, смену на другом узле кластера - по invalidateNick,
+//когда узел о ней сообщит. смену прямо в базе или на узле, с которым не было связи, - по истечении ttl
+public class CachingAuthService implements AuthService {
+    private static final Logger logger = Logger.getLogger(CachingAuthService.class.getName());
+    private final AuthService delegate;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, CachedUser> verified;
+    private final LinkedHashMap<String, Long> rejected;
+    //ник -> логин записи в verified, под lock. ник занят одним пользователем, поэтому запись одна
+    private final HashMap<String, String> loginsByNick = new HashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    //растет при каждой смене ника и сбросе записи. промах, во время которого она выросла,
+    //мог прочитать из базы старый ник и в кэш не кладется
+    private long generation; //под lock
+
+    public CachingAuthService(AuthService delegate, int maxEntries, long ttlMillis, long negativeTtlMillis) {
+        this.delegate = delegate;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.verified = new LinkedHashMap<String, CachedUser>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+                if (size() <= CachingAuthService.this.maxEntries) {
+                    return false;
+                }
+                loginsByNick.remove(eldest.getValue().nick, eldest.getKey());
+                return true;
+            }
+        };
+        this.rejected = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > CachingAuthService.this.maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public Pair<Integer, String> getUserNameByLoginAndPass(String login, String pass) {
+        if (login == null || pass == null) {
+            return delegate.getUserNameByLoginAndPass(login, pass);
+        }
+        byte[] digest = digest(pass);
+        String rejectedKey = rejectedKey(login, digest);
+        long now = System.currentTimeMillis();
+        long startGeneration;
+        lock.lock();
+        try {
+            startGeneration = generation;
+            CachedUser entry = verified.get(login);
+            if (entry != null) {
+                if (entry.expiresAt > now && Arrays.equals(entry.passDigest, digest)) {
+                    hits.incrementAndGet();
+                    return new Pair<>(entry.id, entry.nick);
+                }
+                if (entry.expiresAt <= now) {
+                    forget(login);
+                }
+            }
+            Long rejectedUntil = rejected.get(rejectedKey);
+            if (rejectedUntil != null) {
+                if (rejectedUntil > now) {
+                    negativeHits.incrementAndGet();
+                    return null;
+                }
+                rejected.remove(rejectedKey);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        misses.incrementAndGet();
+        Pair<Integer, String> result = delegate.getUserNameByLoginAndPass(login, pass);
+        now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            if (result != null) {
+                if (generation != startGeneration) {
+                    return result;
+                }
+                remember(login, new CachedUser(digest, result.getKey(), result.getValue(), now + ttlMillis));
+                rejected.remove(rejectedKey);
+            } else if (negativeTtlMillis > 0) {
+                rejected.put(rejectedKey, now + negativeTtlMillis);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
+
+    @Override
+    public boolean changeCurrentNickname(String login, String pass, String newNick) {
+        boolean changed = delegate.changeCurrentNickname(login, pass, newNick);
+        if (changed && login != null) {
+            lock.lock();
+            try {
+                generation++;
+                //новый ник кладем в кэш, если пароль тот же; иначе запись просто устарела
+                CachedUser entry = verified.get(login);
+                if (entry != null && pass != null && Arrays.equals(entry.passDigest, digest(pass))) {
+                    remember(login, new CachedUser(entry.passDigest, entry.id, newNick, entry.expiresAt));
+                } else {
+                    forget(login);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return changed;
+    }
+
+    public void invalidate(String login) {
+        lock.lock();
+        try {
+            generation++;
+            forget(login);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //ник сменили мимо этого сервиса, например на другом узле кластера. запись с этим ником
+    //устарела: без сброса вход вернул бы ник, который база уже отдала или отдаст другому
+    public void invalidateNick(String nick) {
+        lock.lock();
+        try {
+            generation++;
+            String login = loginsByNick.get(nick);
+            if (login != null) {
+                forget(login);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //под lock. запись другого логина с тем же ником устарела и выбрасывается
+    private void remember(String login, CachedUser user) {
+        CachedUser previous = verified.put(login, user);
+        if (previous != null) {
+            loginsByNick.remove(previous.nick, login);
+        }
+        String other = loginsByNick.put(user.nick, login);
+        if (other != null && !other.equals(login)) {
+            verified.remove(other);
+        }
+    }
+
+    //под lock
+    private void forget(String login) {
+        CachedUser previous = verified.remove(login);
+        if (previous != null) {
+            loginsByNick.remove(previous.nick, login);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public String getStats() {
+        return String.format("кэш аутентификации: попаданий %d, попаданий в отказы %d, промахов %d",
+                hits.get(), negativeHits.get(), misses.get());
+    }
+
+    @Override
+    public void start() {
+        delegate.start();
+    }
+
+    @Override
+    public void stop() {
+        logger.log(Level.INFO, getStats());
+        delegate.stop();
+    }
+
+    private static String rejectedKey(String login, byte[] digest) {
+        StringBuilder key = new StringBuilder(login.length() + 1 + digest.length * 2);
+        key.append(login).append('\0');
+        for (byte b : digest) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    private static byte[] digest(String pass) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(pass.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class CachedUser {
+        final byte[] passDigest;
+        final int id;
+        final String nick;
+        final long expiresAt;
+
+        CachedUser(byte[] passDigest, int id, String nick, long expiresAt) {
+            this.passDigest = passDigest;
+            this.id = id;
+            this.nick = nick;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
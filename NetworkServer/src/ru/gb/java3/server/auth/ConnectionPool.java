@@ -0,0 +1,88 @@
+package ru.gb.java3.server.auth;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//ограниченный пул соединений с базой. соединения создаются по мере надобности,
+//но не больше maxSize; если все заняты, поток ждет не дольше acquireTimeoutMillis.
+//места считает семафор: любой возврат, в том числе сломанного соединения, сразу будит ждущего
+public class ConnectionPool {
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final BlockingQueue<PooledConnection> idle;
+    private final Semaphore slots;
+    private final AtomicInteger created = new AtomicInteger();
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, String user, String password, int maxSize, long acquireTimeoutMillis) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(this.maxSize);
+        this.slots = new Semaphore(this.maxSize);
+    }
+
+    public PooledConnection acquire() throws SQLException {
+        if (closed) {
+            throw new SQLException("Пул соединений закрыт");
+        }
+        try {
+            if (!slots.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Нет свободного соединения за " + acquireTimeoutMillis + " мс");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Ожидание соединения прервано", e);
+        }
+        PooledConnection connection = idle.poll();
+        if (connection != null) {
+            return connection;
+        }
+        try {
+            connection = new PooledConnection(DriverManager.getConnection(url, user, password));
+        } catch (SQLException e) {
+            slots.release();
+            throw e;
+        }
+        created.incrementAndGet();
+        return connection;
+    }
+
+    //сломанное соединение закрывается, его место освобождается для нового
+    public void release(PooledConnection connection) {
+        if (connection.isBroken() || closed || !idle.offer(connection)) {
+            connection.close();
+            created.decrementAndGet();
+        }
+        slots.release();
+    }
+
+    //занятые сейчас соединения закроются при возврате
+    public void close() {
+        closed = true;
+        PooledConnection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+            created.decrementAndGet();
+        }
+    }
+
+    public int getCreatedConnections() {
+        return created.get();
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+}
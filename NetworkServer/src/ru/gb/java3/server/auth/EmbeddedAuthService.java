@@ -0,0 +1,323 @@
+package ru.gb.java3.server.auth;
+
+import javafx.util.Pair;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+//учетные записи без внешней базы. users.dat - записи пользователей, только дописывается,
+//nicks.wal - журнал смен ника. при старте оба файла читаются в хеш-индексы,
+//журнал сливается в users.dat, дальше запросы идут только из памяти.
+//запись в файле: длина, CRC32, данные. оборванный хвост после сбоя отрезается при чтении.
+//addUser и смена ника работают только между start() и stop()
+public class EmbeddedAuthService implements AuthService {
+    private static final Logger logger = Logger.getLogger(EmbeddedAuthService.class.getName());
+    private static final String USERS_FILE = "users.dat";
+    private static final String WAL_FILE = "nicks.wal";
+    private static final int RECORD_HEADER = 8;
+    private static final int MAX_RECORD = 64 * 1024;
+
+    private final Path directory;
+    private final int seedUsers;
+    private final boolean syncWrites;
+    private final Map<String, UserRecord> byLogin = new ConcurrentHashMap<>();
+    private final Map<Integer, UserRecord> byId = new ConcurrentHashMap<>();
+    private final Map<String, UserRecord> byNick = new ConcurrentHashMap<>();
+    //запись в файлы и смена ника в индексах
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private FileChannel users;
+    private FileChannel wal;
+    private int lastId;
+
+    //seedUsers - сколько пользователей loginN/passN/nickN создать, если хранилище пустое
+    public EmbeddedAuthService(String directory, int seedUsers, boolean syncWrites) {
+        this.directory = Paths.get(directory);
+        this.seedUsers = seedUsers;
+        this.syncWrites = syncWrites;
+    }
+
+    @Override
+    public Pair<Integer, String> getUserNameByLoginAndPass(String login, String pass) {
+        UserRecord user = login == null ? null : byLogin.get(login);
+        if (user == null || !user.password.equals(pass)) {
+            return null;
+        }
+        return new Pair<>(user.id, user.nick);
+    }
+
+    @Override
+    public boolean changeCurrentNickname(String login, String pass, String newNick) {
+        UserRecord user = login == null ? null : byLogin.get(login);
+        if (user == null || newNick == null || !user.password.equals(pass)) {
+            return false;
+        }
+        IOException failure;
+        writeLock.lock();
+        try {
+            if (byNick.putIfAbsent(newNick, user) != null) {
+                return newNick.equals(user.nick);
+            }
+            try {
+                append(wal, nickRecord(user.id, newNick), syncWrites);
+                byNick.remove(user.nick, user);
+                user.nick = newNick;
+                return true;
+            } catch (IOException e) {
+                byNick.remove(newNick, user);
+                failure = e;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        //сбой диска - не отказ в смене ника; пишем о нем уже без блокировки
+        logger.log(Level.WARNING, "Не удалось записать смену ника в {0}: {1}", new Object[]{WAL_FILE, failure.getMessage()});
+        throw new AuthServiceException("Сбой хранилища во время смены ника", failure);
+    }
+
+    //новый пользователь. false - логин или ник заняты
+    public boolean addUser(String login, String pass, String nick) throws IOException {
+        writeLock.lock();
+        try {
+            if (users == null || !users.isOpen()) {
+                throw new IllegalStateException("Хранилище пользователей не запущено");
+            }
+            UserRecord user = new UserRecord(lastId + 1, login, pass, nick);
+            if (!register(user)) {
+                return false;
+            }
+            try {
+                append(users, userRecord(user), syncWrites);
+            } catch (IOException e) {
+                byLogin.remove(login, user);
+                byId.remove(user.id, user);
+                byNick.remove(nick, user);
+                throw e;
+            }
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public int getUserCount() {
+        return byLogin.size();
+    }
+
+    @Override
+    public void start() {
+        long started = System.nanoTime();
+        try {
+            Files.createDirectories(directory);
+            Path usersPath = directory.resolve(USERS_FILE);
+            Path walPath = directory.resolve(WAL_FILE);
+            for (byte[] record : readRecords(usersPath)) {
+                register(readUser(record));
+            }
+            List<byte[]> changes = readRecords(walPath);
+            for (byte[] record : changes) {
+                applyNickChange(record);
+            }
+            if (!changes.isEmpty()) {
+                compact(usersPath);
+            }
+            users = FileChannel.open(usersPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            wal = FileChannel.open(walPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            wal.truncate(0);
+            if (byLogin.isEmpty() && seedUsers > 0) {
+                seed();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось открыть хранилище пользователей " + directory, e);
+        }
+        logger.log(Level.INFO, "Сервис аутентификации запущен. Пользователей: {0}, загрузка {1} мс",
+                new Object[]{byLogin.size(), (System.nanoTime() - started) / 1_000_000});
+    }
+
+    @Override
+    public void stop() {
+        writeLock.lock();
+        try {
+            closeQuietly(users);
+            closeQuietly(wal);
+        } finally {
+            writeLock.unlock();
+        }
+        logger.log(Level.INFO, "Сервис аутентификации остановлен.");
+    }
+
+    private boolean register(UserRecord user) {
+        if (byLogin.containsKey(user.login) || byNick.containsKey(user.nick)) {
+            return false;
+        }
+        byLogin.put(user.login, user);
+        byId.put(user.id, user);
+        byNick.put(user.nick, user);
+        lastId = Math.max(lastId, user.id);
+        return true;
+    }
+
+    private void applyNickChange(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        UserRecord user = byId.get(in.readInt());
+        String nick = in.readUTF();
+        if (user != null && !byNick.containsKey(nick)) {
+            byNick.remove(user.nick, user);
+            user.nick = nick;
+            byNick.put(nick, user);
+        }
+    }
+
+    //все пользователи одной пачкой и один сброс на диск
+    private void seed() throws IOException {
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        for (int i = 1; i <= seedUsers; i++) {
+            UserRecord user = new UserRecord(lastId + 1, "login" + i, "pass" + i, "nick" + i);
+            if (register(user)) {
+                batch.write(frame(userRecord(user)));
+            }
+        }
+        writeFully(users, ByteBuffer.wrap(batch.toByteArray()));
+        users.force(false);
+    }
+
+    //переписать users.dat с текущими никами: новый файл рядом, затем атомарная подмена
+    private void compact(Path usersPath) throws IOException {
+        Path tmp = directory.resolve(USERS_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            for (UserRecord user : byId.values()) {
+                batch.write(frame(userRecord(user)));
+            }
+            writeFully(out, ByteBuffer.wrap(batch.toByteArray()));
+            out.force(true);
+        }
+        Files.move(tmp, usersPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //все целые записи файла; оборванная или испорченная запись и все после нее отбрасываются
+    private static List<byte[]> readRecords(Path path) throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        if (!Files.exists(path)) {
+            return records;
+        }
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < 0 || length > MAX_RECORD) {
+                    break;
+                }
+                int checksum;
+                byte[] record = new byte[length];
+                try {
+                    checksum = in.readInt();
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(record, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                records.add(record);
+                valid += RECORD_HEADER + length;
+            }
+        }
+        if (valid < Files.size(path)) {
+            logger.log(Level.WARNING, "Файл {0} поврежден после позиции {1}, хвост отброшен", new Object[]{path, valid});
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+        return records;
+    }
+
+    private static UserRecord readUser(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        return new UserRecord(in.readInt(), in.readUTF(), in.readUTF(), in.readUTF());
+    }
+
+    private static byte[] userRecord(UserRecord user) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(user.id);
+        out.writeUTF(user.login);
+        out.writeUTF(user.password);
+        out.writeUTF(user.nick);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] nickRecord(int id, String nick) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(id);
+        out.writeUTF(nick);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] frame(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER + record.length);
+        buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+        return buffer.array();
+    }
+
+    private static void append(FileChannel channel, byte[] record, boolean sync) throws IOException {
+        writeFully(channel, ByteBuffer.wrap(frame(record)));
+        if (sync) {
+            channel.force(false);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Ошибка закрытия хранилища пользователей", e);
+            }
+        }
+    }
+
+    private static final class UserRecord {
+        final int id;
+        final String login;
+        final String password;
+        volatile String nick;
+
+        UserRecord(int id, String login, String password, String nick) {
+            this.id = id;
+            this.login = login;
+            this.password = password;
+            this.nick = nick;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ru.gb.java3.server.auth;
+
+import javafx.util.Pair;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//то же, что BaseAuthService, но через пул соединений: одновременные входы не ждут
+//одно соединение, а подготовленные запросы не создаются заново при каждом вызове.
+//сбой базы или пула выбрасывается как AuthServiceException, а не выдается за неверный пароль
+public class PooledAuthService extends Config implements AuthService {
+    private static final Logger logger = Logger.getLogger(PooledAuthService.class.getName());
+    private static final String SELECT_USER = "SELECT " + Const.USER_ID + ", " + Const.USER_NICK
+            + " FROM " + Const.USER_TABLE
+            + " WHERE " + Const.USER_LOGIN + " = ? AND " + Const.USER_PASS + " = ?";
+    private static final String UPDATE_NICK = "UPDATE " + Const.USER_TABLE
+            + " SET " + Const.USER_NICK + " = ?"
+            + " WHERE " + Const.USER_LOGIN + " = ? AND " + Const.USER_PASS + " = ?";
+
+    private final int poolSize;
+    private final long acquireTimeoutMillis;
+    private final int queryTimeoutSeconds;
+    private ConnectionPool pool;
+
+    public PooledAuthService(int poolSize, long acquireTimeoutMillis, int queryTimeoutSeconds) {
+        this.poolSize = poolSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.queryTimeoutSeconds = queryTimeoutSeconds;
+    }
+
+    @Override
+    public Pair<Integer, String> getUserNameByLoginAndPass(String login, String pass) {
+        PooledConnection connection = null;
+        try {
+            connection = pool.acquire();
+            PreparedStatement statement = connection.prepare(SELECT_USER);
+            statement.setQueryTimeout(queryTimeoutSeconds);
+            statement.setString(1, login);
+            statement.setString(2, pass);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next()) {
+                    return new Pair<>(rs.getInt(Const.USER_ID), rs.getString(Const.USER_NICK));
+                }
+            }
+        } catch (SQLException e) {
+            markBroken(connection, e);
+            throw failure("проверки логина", e);
+        } finally {
+            release(connection);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean changeCurrentNickname(String login, String pass, String newNick) {
+        PooledConnection connection = null;
+        try {
+            connection = pool.acquire();
+            PreparedStatement statement = connection.prepare(UPDATE_NICK);
+            statement.setQueryTimeout(queryTimeoutSeconds);
+            statement.setString(1, newNick);
+            statement.setString(2, login);
+            statement.setString(3, pass);
+            return statement.executeUpdate() == 1;
+        } catch (SQLException e) {
+            if (isConstraintViolation(e)) {
+                return false; //ник уже занят в базе - обычный отказ
+            }
+            markBroken(connection, e);
+            throw failure("смены ника", e);
+        } finally {
+            release(connection);
+        }
+    }
+
+    private static boolean isConstraintViolation(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && state.startsWith("23");
+    }
+
+    private static AuthServiceException failure(String operation, SQLException e) {
+        logger.log(Level.WARNING, "Сбой базы во время " + operation + ": {0}", e.getMessage());
+        return new AuthServiceException("Сбой базы во время " + operation, e);
+    }
+
+    //ошибки вроде занятого ника соединение не портят, закрываем только при сбое связи (SQLState 08...)
+    private void markBroken(PooledConnection connection, SQLException e) {
+        String state = e.getSQLState();
+        if (connection != null && (state == null || state.startsWith("08"))) {
+            connection.markBroken();
+        }
+    }
+
+    private void release(PooledConnection connection) {
+        if (connection != null) {
+            pool.release(connection);
+        }
+    }
+
+    @Override
+    public void start() {
+        try {
+            Class.forName("com.mysql.jdbc.Driver");
+        } catch (ClassNotFoundException e) {
+            logger.log(Level.SEVERE, "Драйвер MySQL не найден", e);
+        }
+        String connectionString = String.format("jdbc:mysql://%s:%s/%s?useSSL=false", dbHost, dbPort, dbName);
+        pool = new ConnectionPool(connectionString, dbUser, dbPass, poolSize, acquireTimeoutMillis);
+        logger.log(Level.INFO, "Сервис аутентификации запущен. Соединений в пуле: до {0}", poolSize);
+    }
+
+    @Override
+    public void stop() {
+        if (pool != null) {
+            pool.close();
+        }
+        logger.log(Level.INFO, "Сервис аутентификации остановлен.");
+    }
+}
@@ -0,0 +1,56 @@
+package ru.gb.java3.server.auth;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//соединение из пула со своим кэшем подготовленных запросов.
+//в каждый момент им пользуется один поток, поэтому кэш без синхронизации
+public class PooledConnection {
+    private static final Logger logger = Logger.getLogger(PooledConnection.class.getName());
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    private boolean broken;
+
+    PooledConnection(Connection connection) {
+        this.connection = connection;
+    }
+
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    //после ошибки соединение не возвращается в пул, а закрывается
+    public void markBroken() {
+        broken = true;
+    }
+
+    boolean isBroken() {
+        return broken;
+    }
+
+    void close() {
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                logger.log(Level.WARNING, "Ошибка закрытия подготовленного запроса", e);
+            }
+        }
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Ошибка закрытия соединения с базой", e);
+        }
+    }
+}
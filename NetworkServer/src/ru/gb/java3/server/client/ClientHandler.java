@@ -5,30 +5,58 @@ import ru.gb.java3.clientserver.Command;
 import ru.gb.java3.clientserver.CommandType;
 import ru.gb.java3.clientserver.command.AuthCommand;
 import ru.gb.java3.clientserver.command.BroadcastMessageCommand;
+import ru.gb.java3.clientserver.command.CapabilitiesCommand;
 import ru.gb.java3.clientserver.command.ChangeNickCommand;
+import ru.gb.java3.clientserver.command.HistoryRequestCommand;
 import ru.gb.java3.clientserver.command.PrivateMessageCommand;
+import ru.gb.java3.clientserver.command.RoomCommand;
+import ru.gb.java3.clientserver.command.RoomMessageCommand;
+import ru.gb.java3.clientserver.codec.CommandCodec;
+import ru.gb.java3.clientserver.codec.CommandFormatException;
+import ru.gb.java3.clientserver.codec.Frame;
 import ru.gb.java3.server.NetworkServer;
+import ru.gb.java3.server.log.ServerLogging;
+import ru.gb.java3.server.timer.Timeout;
+import ru.gb.java3.server.transport.ClientConnection;
+import ru.gb.java3.server.transport.SocketConnection;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.List;
-import java.util.concurrent.Executor;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.*;
 
 public class ClientHandler {
     private static final Logger logger = Logger.getLogger(ClientHandler.class.getName());
     private final long TIMEOUT = 120000; // in millis
     private final NetworkServer networkServer;
-    private final Socket clientSocket;
+    private final Socket clientSocket; //только для блокирующего режима
+    private final AtomicBoolean closed = new AtomicBoolean();
+    //ответ базы еще не пришел: повторный AUTH или CHANGE_NICK не принимаем
+    private final AtomicBoolean authPending = new AtomicBoolean();
+    private final AtomicBoolean nickChangePending = new AtomicBoolean();
+    //занято место среди неавторизованных сессий, освобождается один раз
+    private final AtomicBoolean admitted = new AtomicBoolean();
 
-    private ObjectInputStream in;
-    private ObjectOutputStream out;
+    private ClientConnection connection;
+    private SocketConnection socketConnection;
 
 
-    private String nick;
+    private volatile String nick;
+    //фаза сессии: до успешного входа принимаются только AUTH и CAPABILITIES
+    private volatile boolean authenticated;
+    private volatile int userId;
+    private volatile boolean compression; //клиент согласился на сжатые кадры
+    private volatile long nickSince; //когда занят текущий ник, для споров за ник между узлами
+    private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+    private Timeout authTimeout;
 
     static {
         setLogger();
@@ -40,64 +68,151 @@ public class ClientHandler {
 
     }
 
+    //для неблокирующего транспорта: чтение и запись ведет сам транспорт
+    public ClientHandler(NetworkServer networkServer, ClientConnection connection) {
+        this.networkServer = networkServer;
+        this.clientSocket = null;
+        this.connection = connection;
+    }
+
 
     public void go(){
         doHandle(clientSocket);
     }
 
+    //режим VIRTUAL: чтение в общем пуле виртуальных потоков
+    public void go(ExecutorService sessionExecutor) {
+        try {
+            socketConnection = newSocketConnection();
+            connection = socketConnection;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Не удалось открыть соединение", e);
+            return;
+        }
+        if (!admit()) {
+            return;
+        }
+        startAuthTimeout();
+        sessionExecutor.execute(this::runSession);
+    }
+
+    //неблокирующий режим: команды приходят через onFrame(), здесь только таймаут авторизации
+    public void goNonBlocking() {
+        if (admit()) {
+            startAuthTimeout();
+        }
+    }
+
     private void doHandle(Socket clientSocket) {
         try {
-            out = new ObjectOutputStream(clientSocket.getOutputStream());
-            in = new ObjectInputStream(clientSocket.getInputStream());
+            socketConnection = newSocketConnection();
+            connection = socketConnection;
+            if (!admit()) {
+                return;
+            }
+
+            //TIMEOUT: запись в общем таймере вместо отдельного ждущего потока
+            startAuthTimeout();
 
             //запуск авторизации с последующим чтением ввода в отдельном потоке
-            ExecutorService executorService = Executors.newFixedThreadPool(2);
-            executorService.execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        authentication();
-                        readingMessages();
-                    } catch (IOException e) {
-                        System.out.println("Соединение с клиентом " + nick + " завершено.");
-                        logger.log(Level.SEVERE,"Соединение с клиентом " + nick + " завершено.");
-                    } finally {
-                        closeConnection();
-                    }
-                }
-            });
+            Thread thread = new Thread(this::runSession, "client-handler");
+            thread.start();
 
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Не удалось открыть соединение", e);
+        }
+    }
 
-            //TIMEOUT
-            executorService.execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        executorService.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS );
-                        if(nick == null){
-                            Command authErrorCommand = Command.authErrorCommand("Превышено время ожидания");
-                            sendMessage(authErrorCommand);
-                            closeConnection();
-                            System.out.println("Соединение разорвано по таймауту");
-                            logger.log(Level.INFO,"Соединение разорвано по таймауту");
-                        }
-                    } catch (InterruptedException | IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
+    //общий лимит неавторизованных сессий. при отказе клиент сразу получает ошибку
+    //с подсказкой, когда повторить, и соединение закрывается
+    private boolean admit() {
+        if (networkServer.getAdmission().tryAdmitSession()) {
+            admitted.set(true);
+            return true;
+        }
+        int retryAfter = networkServer.getAdmission().sessionRetryAfterSeconds();
+        logger.log(Level.WARNING, "Отказ в подключении {0}: превышен лимит неавторизованных сессий", connection.getRemoteAddress());
+        try {
+            sendMessage(Command.authErrorCommand("Сервер перегружен. Повторите попытку через " + retryAfter + " с"));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Не удалось отправить отказ в подключении", e);
+        }
+        closeConnection();
+        return false;
+    }
+
+    private void releaseAdmission() {
+        if (admitted.compareAndSet(true, false)) {
+            networkServer.getAdmission().releaseSession();
+        }
+    }
+
+    private void startAuthTimeout() {
+        authTimeout = networkServer.getTimer().newTimeout(this::onAuthTimeout, TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private SocketConnection newSocketConnection() throws IOException {
+        return new SocketConnection(clientSocket, networkServer.getWriterExecutor(), networkServer.newOutboundQueue(),
+                networkServer.getTimer(), networkServer.getWriteTimeoutMillis());
+    }
 
+    private void runSession() {
+        try {
+            authentication();
+            readingMessages();
         } catch (IOException e) {
-            e.printStackTrace();
+            if (logger.isLoggable(Level.INFO)) {
+                logger.log(Level.INFO,"Соединение с клиентом {0} завершено.", nick);
+            }
+        } finally {
+            closeConnection();
+        }
+    }
+
+    private void onAuthTimeout() {
+        if(!authenticated && !closed.get()){
+            try {
+                Command authErrorCommand = Command.authErrorCommand("Превышено время ожидания");
+                sendMessage(authErrorCommand);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Не удалось отправить ошибку таймаута", e);
+            }
+            closeConnection();
+            logger.log(Level.INFO,"Соединение разорвано по таймауту");
         }
     }
 
-    private void closeConnection() {
+    //закрытие может прийти одновременно из чтения, таймаута и транспорта
+    public void closeConnection() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (authTimeout != null) {
+            authTimeout.cancel();
+        }
+        releaseAdmission();
         try{
             networkServer.unsubscribe(this); //отписаться
-            clientSocket.close(); //закрыть сокет и ридеры ввода/вывода
         } catch(IOException e){
-            e.printStackTrace();
+            logger.log(Level.WARNING, "Ошибка при отписке клиента", e);
+        } finally {
+            connection.close(); //закрыть сокет
+        }
+    }
+
+    //кадр, прочитанный неблокирующим транспортом
+    public void onFrame(byte[] body, int offset, int length) throws IOException {
+        Command command;
+        try {
+            command = CommandCodec.decode(body, offset, length);
+        } catch (CommandFormatException e) {
+            reportUnknownCommand(e);
+            return;
+        }
+        if (!authenticated) {
+            processAuthPhaseCommand(command);
+        } else if (!processChatCommand(command)) {
+            closeConnection();
         }
     }
 
@@ -107,106 +222,248 @@ public class ClientHandler {
             if(command == null){
                 continue;
             }
-            switch (command.getType()){
-                case END:
-                    System.out.println("received END command");
-                    return;
-                case PRIVATE_MESSAGE:{
-                    PrivateMessageCommand commandData = (PrivateMessageCommand) command.getData();
-                    String receiver = commandData.getReceiver();
-                    String message = commandData.getMessage();
-                    networkServer.sendMessage(receiver, Command.messageCommand(nick, message)); //получатель отправитель сообщение
-                    break;
-                }
-                case BROADCAST_MESSAGE:{
-                    BroadcastMessageCommand commandData = (BroadcastMessageCommand) command.getData();
-                    String message = commandData.getMessage();
-                    networkServer.broadcastMessage(Command.messageCommand(nick, message), this);
-                    break;
-                }
-                case CHANGE_NICK:{
-                    ChangeNickCommand commandData = (ChangeNickCommand) command.getData();
-                    String login = commandData.getLogin();
-                    String pass = commandData.getPassword();
-                    String newNick = commandData.getUsername();
-                    boolean changeSuccessful = networkServer.getAuthService().changeCurrentNickname(login, pass, newNick);
-                    if(changeSuccessful){
-                        String message = nick + " сменил ник на " + newNick;
-                        logger.log(Level.INFO,message);
-                        nick = newNick;
-                        networkServer.broadcastMessage(Command.messageCommand(null, message), this);
-
-                        sendMessage(command); //смена ника подтверждение
-                        List<String> users = networkServer.getAllUserNames();
-                        networkServer.broadcastMessage(Command.updateUsersListCommand(users), this);
-                    } else {
-                        Command errorCommand = Command.errorCommand("Не удалось сменить Nick. Пользователь с таким ником существует или login/pass введены неправильно");
-                        logger.log(Level.WARNING,"Пользователь " + nick + "Не удалось сменить Nick. Пользователь с таким ником существует или login/pass введены неправильно");
-                        sendMessage(errorCommand);
+            if(!processChatCommand(command)){
+                return;
+            }
+        }
+    }
+
+    //false - клиент завершил сессию
+    private boolean processChatCommand(Command command) throws IOException {
+        switch (command.getType()){
+            case END:
+                logger.log(Level.FINE,"received END command");
+                return false;
+            case PRIVATE_MESSAGE:{
+                PrivateMessageCommand commandData = (PrivateMessageCommand) command.getData();
+                String receiver = commandData.getReceiver();
+                String message = commandData.getMessage();
+                networkServer.sendPrivateMessage(this, receiver, message);
+                break;
+            }
+            case BROADCAST_MESSAGE:{
+                BroadcastMessageCommand commandData = (BroadcastMessageCommand) command.getData();
+                String message = commandData.getMessage();
+                networkServer.broadcastChatMessage(this, message);
+                break;
+            }
+            case CHANGE_NICK:
+                changeNick(command);
+                break;
+            case HISTORY_REQUEST:
+                networkServer.requestHistory(this, (HistoryRequestCommand) command.getData());
+                break;
+            case CAPABILITIES:
+                negotiateCapabilities((CapabilitiesCommand) command.getData());
+                break;
+            case ROOM_JOIN:
+                networkServer.joinRoom(this, ((RoomCommand) command.getData()).getRoom());
+                break;
+            case ROOM_LEAVE:
+                networkServer.leaveRoom(this, ((RoomCommand) command.getData()).getRoom());
+                break;
+            case ROOM_MESSAGE:{
+                RoomMessageCommand commandData = (RoomMessageCommand) command.getData();
+                networkServer.sendRoomMessage(this, commandData.getRoom(), commandData.getMessage());
+                break;
+            }
+            default:
+                logger.log(Level.SEVERE,"unknown type of command : {0}", command.getType());
+
+        }
+        return true;
+    }
+
+    //новый ник занимается в реестре сразу, запрос в базу уходит в пул аутентификации,
+    //ответ клиенту - по его завершении. до ответа базы клиент доступен под старым ником
+    private void changeNick(Command command) throws IOException {
+        ChangeNickCommand commandData = (ChangeNickCommand) command.getData();
+        String login = commandData.getLogin();
+        String pass = commandData.getPassword();
+        String newNick = commandData.getUsername();
+        String oldNick = nick;
+        if (!nickChangePending.compareAndSet(false, true)) {
+            sendMessage(Command.errorCommand("Предыдущая смена ника еще не завершена"));
+            return;
+        }
+        //сначала занимаем новый ник в реестре, чтобы его не увели, пока идет запрос в базу
+        if (newNick == null || newNick.equals(oldNick) || !networkServer.reserveNick(this, newNick)) {
+            nickChangePending.set(false);
+            reportNickChangeError();
+            return;
+        }
+        networkServer.getAuthService().changeCurrentNickname(login, pass, newNick).whenComplete((changed, error) -> {
+            try {
+                if (error == null && changed) {
+                    String message = oldNick + " сменил ник на " + newNick;
+                    if (logger.isLoggable(Level.INFO)) {
+                        logger.log(Level.INFO,"{0} сменил ник на {1}", new Object[]{oldNick, newNick});
                     }
-                    break;
+                    nick = newNick;
+                    nickSince = System.currentTimeMillis();
+                    networkServer.releaseNick(this, oldNick);
+                    networkServer.broadcastMessage(Command.messageCommand(null, message), this);
+
+                    sendMessage(command); //смена ника подтверждение
+                    networkServer.broadcastRename(this, oldNick, newNick);
+                } else {
+                    networkServer.releaseNick(this, newNick);
+                    reportNickChangeError();
                 }
-                default:
-                    System.err.println("unknown type of command : " + command.getType());
-                    logger.log(Level.SEVERE,"unknown type of command : " + command.getType());
+            } catch (IOException e) {
+                closeConnection();
+            } finally {
+                nickChangePending.set(false);
+                releaseIfClosed();
+            }
+        });
+    }
 
+    private void reportNickChangeError() throws IOException {
+        Command errorCommand = Command.errorCommand("Не удалось сменить Nick. Пользователь с таким ником существует или login/pass введены неправильно");
+        logger.log(Level.WARNING,"Пользователь {0}: не удалось сменить Nick. Пользователь с таким ником существует или login/pass введены неправильно", nick);
+        sendMessage(errorCommand);
+    }
+
+    //соединение закрылось, пока шел запрос в базу: closeConnection() мог отписать клиента
+    //под старым ником, поэтому отписываем еще раз под тем, что сейчас в реестре
+    private void releaseIfClosed() {
+        if (closed.get()) {
+            try {
+                networkServer.unsubscribe(this);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Ошибка при отписке клиента", e);
             }
         }
     }
 
     private Command readCommand() throws IOException {
         try {
-            return (Command) in.readObject();
-        } catch (ClassNotFoundException e) {
-            String errorMessage = "Unknown type of object from client";
-            System.err.println(errorMessage);
-            e.printStackTrace();
-            sendMessage(Command.errorCommand(errorMessage));
+            return socketConnection.readCommand();
+        } catch (CommandFormatException e) {
+            reportUnknownCommand(e);
             return null;
         }
     }
 
+    private void reportUnknownCommand(CommandFormatException e) throws IOException {
+        String errorMessage = "Unknown type of object from client";
+        logger.log(Level.WARNING, errorMessage, e);
+        sendMessage(Command.errorCommand(errorMessage));
+    }
+
     private void authentication() throws IOException {
         while(true) {
             Command command = readCommand();
             if(command == null){
                 continue;
             }
-            if(command.getType() == CommandType.AUTH){
-                boolean successfulAuth = processAuthCommand(command);
-                if(successfulAuth){
-                    logger.log(Level.INFO,"Успешная авторизация");
-                    return;
-                }
-            } else {
-                System.err.println("Unknown type of command for authprocess: " + command.getType());
+            //поток чтения ждет ответа, но сам запрос выполняется в пуле аутентификации
+            if(awaitAuth(processAuthPhaseCommand(command))){
+                return;
             }
         }
     }
 
-    private boolean processAuthCommand(Command command) throws IOException {
+    private boolean awaitAuth(CompletableFuture<Boolean> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Авторизация прервана");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    //future с true - авторизация прошла. в неблокирующем режиме результат не ждут:
+    //продолжение выполняется в потоке пула аутентификации
+    private CompletableFuture<Boolean> processAuthPhaseCommand(Command command) {
+        if(command.getType() == CommandType.CAPABILITIES){
+            negotiateCapabilities((CapabilitiesCommand) command.getData());
+            return CompletableFuture.completedFuture(false);
+        }
+        if(command.getType() != CommandType.AUTH){
+            logger.log(Level.WARNING,"Unknown type of command for authprocess: {0}", command.getType());
+            return CompletableFuture.completedFuture(false);
+        }
+        if(!authPending.compareAndSet(false, true)){
+            logger.log(Level.FINE,"Authentication is already in progress");
+            return CompletableFuture.completedFuture(false);
+        }
+        int retryAfter = networkServer.getAdmission().tryAuthAttempt(connection.getRemoteHost());
+        if(retryAfter > 0){
+            authPending.set(false);
+            if (logger.isLoggable(Level.INFO)) {
+                logger.log(Level.INFO,"Слишком частые попытки авторизации с {0}", connection.getRemoteAddress());
+            }
+            try {
+                sendMessage(Command.authErrorCommand("Слишком много попыток входа. Повторите через " + retryAfter + " с"));
+            } catch (IOException e) {
+                closeConnection();
+            }
+            return CompletableFuture.completedFuture(false);
+        }
+        AuthCommand commandData = (AuthCommand) command.getData();
+        return networkServer.getAuthService().getUserNameByLoginAndPass(commandData.getLogin(), commandData.getPassword())
+                .handle((username, error) -> {
+                    try {
+                        boolean successfulAuth = processAuthResult(command, username, error);
+                        if(successfulAuth){
+                            logger.log(Level.INFO,"Успешная авторизация");
+                        }
+                        return successfulAuth;
+                    } catch (IOException e) {
+                        closeConnection();
+                        return false;
+                    } finally {
+                        authPending.set(false);
+                    }
+                });
+    }
+
+    private boolean processAuthResult(Command command, Pair<Integer, String> username, Throwable error) throws IOException {
+        if(closed.get()){
+            return false; //таймаут или разрыв, пока шел запрос в базу
+        }
+        if(error != null){
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            String message = cause instanceof RejectedExecutionException
+                    ? "Сервер перегружен, повторите попытку позже"
+                    : "Сервис авторизации недоступен";
+            logger.log(Level.WARNING, message, cause);
+            sendMessage(Command.authErrorCommand(message));
+            return false;
+        }
         AuthCommand commandData = (AuthCommand) command.getData();
-        String login = commandData.getLogin();
-        String password = commandData.getPassword();
-        //String username = networkServer.getAuthService().getUserNameByLoginAndPass(login, password);
-        Pair<Integer, String> username = networkServer.getAuthService().getUserNameByLoginAndPass(login, password);
         if(username == null){
             Command authErrorCommand = Command.authErrorCommand("Отсутствует учетная запись с таким логином/паролем");
             logger.log(Level.INFO,"Отсутствует учетная запись с введенным логином/паролем");
             sendMessage(authErrorCommand);
             return false;
-        } else if (networkServer.isNickBusy(username.getValue())){
+        }
+        //проверка и занятие ника одной операцией. ник публикуется только после нее
+        if (!networkServer.register(this, username.getValue(), username.getKey())){
             Command authErrorCommand = Command.authErrorCommand("Данный пользователь уже авторизован.");
             logger.log(Level.INFO,"Попытка авторизации, авторизованного пользователя");
             sendMessage(authErrorCommand);
             return false;
+        }
+        publishIdentity(username.getKey(), username.getValue());
+        if (closed.get()) {
+            releaseIfClosed();
+            return false;
         } else {
-            nick = username.getValue();
+            authTimeout.cancel();
+            releaseAdmission();
             String message = nick + " зашел в чат!";
             networkServer.broadcastMessage(Command.messageCommand(null, message), this);
-            logger.log(Level.INFO,message);
+            if (logger.isLoggable(Level.INFO)) {
+                logger.log(Level.INFO,"{0} зашел в чат!", nick);
+            }
             commandData.setUsername(nick);
             commandData.setID(username.getKey());
+            authenticated = true;
             sendMessage(command); //авторизация
             networkServer.subscribe(this);
             return true;
@@ -214,24 +471,63 @@ public class ClientHandler {
 
     }
 
-    public void sendMessage(Command command) throws IOException {
-        out.writeObject(command);
+    //вход пользователя, подтвержденного вне сервера (замеры, стенды): без запроса в базу
+    //и без рассылки о входе. false - ник занят
+    public boolean signIn(int id, String name) {
+        if (!networkServer.register(this, name, id)) {
+            return false;
+        }
+        publishIdentity(id, name);
+        authenticated = true;
+        return true;
     }
 
-    public String getUserName() {
-        return nick;
+    private void publishIdentity(int id, String name) {
+        userId = id;
+        nickSince = System.currentTimeMillis();
+        nick = name;
     }
-    private static void setLogger() {
-        Handler handler = null;
+
+    //ответ - те из предложенных возможностей, что включены на сервере.
+    //сжатие начинается с кадров после ответа, принимать сжатые кадры можно всегда
+    private void negotiateCapabilities(CapabilitiesCommand offer) {
+        boolean accepted = offer.hasCompression() && networkServer.isCompressionEnabled();
         try {
-            handler = new FileHandler("clienthandlerlog.log", true);
+            sendMessage(Command.capabilitiesCommand(accepted ? CapabilitiesCommand.COMPRESSION : 0));
         } catch (IOException e) {
-            e.printStackTrace();
+            closeConnection();
+            return;
         }
-        handler.setFormatter(new SimpleFormatter());
-        logger.addHandler(handler);
-        logger.setLevel(Level.FINEST);
-        logger.getHandlers()[0].setLevel(Level.INFO);
+        compression = accepted;
+    }
 
+    public void sendMessage(Command command) throws IOException {
+        sendFrame(Frame.encode(command));
+    }
+
+    //уже закодированный кадр, общий для нескольких получателей.
+    //сжатый вариант кадра тоже общий: считается у первого получателя со сжатием
+    public void sendFrame(Frame frame) throws IOException {
+        connection.send(compression ? frame.compressed() : frame);
+    }
+
+    public String getUserName() {
+        return nick;
+    }
+
+    //комнаты, в которых состоит клиент
+    public Set<String> getRooms() {
+        return rooms;
+    }
+
+    public long getNickSince() {
+        return nickSince;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+    private static void setLogger() {
+        ServerLogging.addFileHandler(logger, "clienthandlerlog.log");
     }
 }
@@ -0,0 +1,83 @@
+package ru.gb.java3.server.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+//авторизованные клиенты по нику и id. чтение и обход без блокировок,
+//занятие ника атомарно, поэтому два одновременных входа под одним ником не пройдут.
+//на время смены ника клиент держит в byNick и старый, и новый ник; обход и список
+//пользователей идут по byId и показывают только ник, опубликованный самим клиентом
+public class ClientRegistry {
+    private final ConcurrentHashMap<String, ClientHandler> byNick = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, ClientHandler> byId = new ConcurrentHashMap<>();
+
+    //false - ник уже занят или под этой учетной записью уже есть сессия (например, сменившая ник).
+    //ник передается явно: клиент публикует его у себя только после успеха
+    public boolean register(ClientHandler client, String nick, int id) {
+        if (byNick.putIfAbsent(nick, client) != null) {
+            return false;
+        }
+        if (byId.putIfAbsent(id, client) != null) {
+            byNick.remove(nick, client);
+            return false;
+        }
+        return true;
+    }
+
+    //false - клиента и так не было
+    public boolean unregister(ClientHandler client) {
+        String nick = client.getUserName();
+        if (nick == null || !byNick.remove(nick, client)) {
+            return false;
+        }
+        byId.remove(client.getUserId(), client);
+        return true;
+    }
+
+    //занять ник для смены, старый остается за клиентом. false - ник у другого клиента
+    public boolean reserve(ClientHandler client, String nick) {
+        ClientHandler owner = byNick.putIfAbsent(nick, client);
+        return owner == null || owner == client;
+    }
+
+    //отдать ник, занятый клиентом: старый после смены или новый после отказа базы
+    public void release(ClientHandler client, String nick) {
+        byNick.remove(nick, client);
+    }
+
+    //только по опубликованному нику: занятый для смены ник еще никому не объявлен
+    public ClientHandler getByNick(String nick) {
+        ClientHandler client = nick == null ? null : byNick.get(nick);
+        return client != null && nick.equals(client.getUserName()) ? client : null;
+    }
+
+    public ClientHandler getById(int id) {
+        return byId.get(id);
+    }
+
+    public boolean isNickBusy(String nick) {
+        return nick != null && byNick.containsKey(nick);
+    }
+
+    public List<String> getAllUserNames() {
+        List<String> names = new ArrayList<>(byId.size());
+        for (ClientHandler client : byId.values()) {
+            String nick = client.getUserName();
+            if (nick != null) {
+                names.add(nick);
+            }
+        }
+        return names;
+    }
+
+    //слабо согласованный обзор для рассылки: копирование не нужно. каждый клиент один раз
+    public Collection<ClientHandler> getClients() {
+        return byId.values();
+    }
+
+    public int size() {
+        return byId.size();
+    }
+}
@@ -0,0 +1,30 @@
+package ru.gb.java3.server.cluster;
+
+import java.util.Map;
+
+//что узел кластера сообщает серверу. вызывается из потоков чтения межузловых соединений
+public interface ClusterListener {
+
+    //время, с которого ник занят на этом узле, -1 - ник здесь свободен
+    long localNickSince(String nick);
+
+    //все пользователи этого узла: ник и время занятия ника
+    Map<String, Long> localUsers();
+
+    void remoteUserJoined(String nick);
+
+    void remoteUserLeft(String nick);
+
+    void remoteUserRenamed(String oldNick, String newNick);
+
+    //на другом узле ник сменили в базе. вызывается на каждую смену, даже если присутствие
+    //здесь не изменилось: кэш учетных записей сбрасывается в любом случае
+    void remoteNickChanged(String oldNick, String newNick);
+
+    void remoteBroadcast(int senderId, String sender, String message);
+
+    void remotePrivateMessage(int senderId, String sender, String receiver, String message);
+
+    //ник одновременно заняли на двух узлах, и этот вход проиграл
+    void nickConflict(String nick);
+}
@@ -0,0 +1,383 @@
+package ru.gb.java3.server.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//узел кластера. с каждым узлом из peers держит исходящее соединение (PeerLink) для своих
+//сообщений и принимает входящие от них на port. по входящим приходят присутствие
+//(снимок, затем изменения), рассылки - по одному кадру на узел, а не на пользователя,
+//и приваты для пользователей этого узла.
+//ник, одновременно занятый на двух узлах, остается за тем, кто занял раньше
+//(при равенстве - за узлом с меньшим id); проигравший узел сам отключает своего пользователя.
+//входящее соединение принимается, только если узел подписал вызов общим секретом:
+//иначе любой, кто достучался до порта, мог бы слать сообщения от чужого имени и выбивать пользователей
+public class ClusterNode {
+    private static final Logger logger = Logger.getLogger(ClusterNode.class.getName());
+    static final long PING_INTERVAL_MILLIS = 2000;
+    //входящее соединение без единого кадра за это время считается оборванным
+    private static final int READ_TIMEOUT_MILLIS = (int) (PING_INTERVAL_MILLIS * 3);
+
+    private final String nodeId;
+    private final String bindAddress;
+    private final int port;
+    private final byte[] secret;
+    private final SecureRandom random = new SecureRandom();
+    private final ClusterListener listener;
+    private final List<PeerLink> links = new ArrayList<>();
+    private final Map<String, PeerLink> linksByNode = new ConcurrentHashMap<>();
+    //пользователи других узлов по нику
+    private final ConcurrentHashMap<String, RemoteUser> remoteUsers = new ConcurrentHashMap<>();
+    //текущее входящее соединение от каждого узла
+    private final ConcurrentHashMap<String, Socket> inbound = new ConcurrentHashMap<>();
+    //снимок для нового соединения и изменения присутствия уходят в одном порядке
+    private final ReentrantLock presenceLock = new ReentrantLock();
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+
+    //peers - "host:port,host:port", все остальные узлы кластера; bindAddress - пусто для всех интерфейсов
+    public ClusterNode(String nodeId, String bindAddress, int port, String peers, String secret, ClusterListener listener) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("Для кластера нужен общий секрет узлов (chat.cluster.secret)");
+        }
+        this.nodeId = nodeId;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.listener = listener;
+        for (String peer : peers.split(",")) {
+            peer = peer.trim();
+            if (peer.isEmpty()) {
+                continue;
+            }
+            int colon = peer.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Адрес узла должен быть host:port: " + peer);
+            }
+            links.add(new PeerLink(this, peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+        }
+    }
+
+    public void start() throws IOException {
+        running = true;
+        serverSocket = bindAddress == null || bindAddress.isEmpty()
+                ? new ServerSocket(port) : new ServerSocket(port, 50, InetAddress.getByName(bindAddress));
+        Thread acceptor = new Thread(this::acceptLoop, "cluster-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        for (PeerLink link : links) {
+            link.start();
+        }
+        logger.log(Level.INFO, "Узел кластера {0} слушает {1}, соседей: {2}",
+                new Object[]{nodeId, serverSocket.getLocalSocketAddress(), links.size()});
+    }
+
+    public void stop() {
+        running = false;
+        for (PeerLink link : links) {
+            link.stop();
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Ошибка закрытия порта кластера", e);
+        }
+        for (Socket socket : inbound.values()) {
+            closeQuietly(socket);
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    //ник занят на другом узле
+    public boolean isNickBusy(String nick) {
+        return nick != null && remoteUsers.containsKey(nick);
+    }
+
+    public List<String> getRemoteUserNames() {
+        return new ArrayList<>(remoteUsers.keySet());
+    }
+
+    public int getConnectedPeers() {
+        int count = 0;
+        for (PeerLink link : links) {
+            if (link.isConnected()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void userJoined(String nick, long since) {
+        sendPresence(ClusterProtocol.join(nick, since));
+    }
+
+    public void userLeft(String nick) {
+        sendPresence(ClusterProtocol.leave(nick));
+    }
+
+    public void userRenamed(String oldNick, String newNick, long since) {
+        sendPresence(ClusterProtocol.rename(oldNick, newNick, since));
+    }
+
+    //один кадр на узел, дальше узел сам раздает своим пользователям
+    public void forwardBroadcast(int senderId, String sender, String message) {
+        byte[] frame = ClusterProtocol.broadcast(senderId, sender, message);
+        for (PeerLink link : links) {
+            link.send(frame);
+        }
+    }
+
+    //false - получателя нет ни на одном узле
+    public boolean routePrivate(int senderId, String sender, String receiver, String message) {
+        RemoteUser user = receiver == null ? null : remoteUsers.get(receiver);
+        PeerLink link = user == null ? null : linksByNode.get(user.node);
+        if (link == null) {
+            return false;
+        }
+        link.send(ClusterProtocol.privateMessage(senderId, sender, receiver, message));
+        return true;
+    }
+
+    private void sendPresence(byte[] frame) {
+        presenceLock.lock();
+        try {
+            for (PeerLink link : links) {
+                link.send(frame);
+            }
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
+    //подпись своего id для вызова, который прислал узел
+    byte[] prove(byte[] nonce) {
+        return ClusterProtocol.sign(secret, nonce, nodeId);
+    }
+
+    boolean verify(byte[] nonce, String peer, byte[] proof) {
+        return peer != null && MessageDigest.isEqual(ClusterProtocol.sign(secret, nonce, peer), proof);
+    }
+
+    //новое исходящее соединение начинается со снимка своих пользователей
+    void linkUp(PeerLink link) {
+        linksByNode.put(link.getPeerId(), link);
+        presenceLock.lock();
+        try {
+            link.resync(ClusterProtocol.snapshot(listener.localUsers()));
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread reader = new Thread(() -> readLoop(socket), "cluster-in-" + socket.getRemoteSocketAddress());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    logger.log(Level.WARNING, "Ошибка приема соединения узла", e);
+                }
+            }
+        }
+    }
+
+    private void readLoop(Socket socket) {
+        String peer = null;
+        try {
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            byte[] nonce = new byte[ClusterProtocol.CHALLENGE_BYTES];
+            random.nextBytes(nonce);
+            out.write(ClusterProtocol.challenge(nonce));
+            out.flush();
+            byte[] hello = ClusterProtocol.readFrame(in, ClusterProtocol.MAX_HANDSHAKE_FRAME);
+            if (hello[0] != ClusterProtocol.HELLO) {
+                throw new IOException("Unexpected handshake from " + socket.getRemoteSocketAddress());
+            }
+            DataInputStream fields = payload(hello);
+            String id = ClusterProtocol.readString(fields);
+            if (!verify(nonce, id, ClusterProtocol.readBytes(fields))) {
+                logger.log(Level.WARNING, "Соединение {0} ({1}) не прошло проверку секрета кластера",
+                        new Object[]{socket.getRemoteSocketAddress(), id});
+                return;
+            }
+            peer = id;
+            out.write(ClusterProtocol.hello(nodeId, prove(nonce)));
+            out.flush();
+            Socket previous = inbound.put(peer, socket);
+            if (previous != null) {
+                closeQuietly(previous); //узел переподключился, старое соединение больше не нужно
+            }
+            while (running) {
+                dispatch(peer, ClusterProtocol.readFrame(in));
+            }
+        } catch (IOException e) {
+            if (running) {
+                logger.log(Level.FINE, "Входящее соединение узла {0} закрыто: {1}", new Object[]{peer, e.getMessage()});
+            }
+        } finally {
+            closeQuietly(socket);
+            if (peer != null && inbound.remove(peer, socket)) {
+                dropNode(peer);
+            }
+        }
+    }
+
+    private void dispatch(String peer, byte[] frame) throws IOException {
+        DataInputStream in = payload(frame);
+        switch (frame[0]) {
+            case ClusterProtocol.SNAPSHOT: {
+                int size = in.readInt();
+                Map<String, Long> users = new HashMap<>(Math.max(16, size * 2));
+                for (int i = 0; i < size; i++) {
+                    users.put(ClusterProtocol.readString(in), in.readLong());
+                }
+                applySnapshot(peer, users);
+                break;
+            }
+            case ClusterProtocol.JOIN: {
+                String nick = ClusterProtocol.readString(in);
+                if (applyJoin(peer, nick, in.readLong())) {
+                    listener.remoteUserJoined(nick);
+                }
+                break;
+            }
+            case ClusterProtocol.LEAVE: {
+                String nick = ClusterProtocol.readString(in);
+                if (removeUser(peer, nick)) {
+                    listener.remoteUserLeft(nick);
+                }
+                break;
+            }
+            case ClusterProtocol.RENAME: {
+                String oldNick = ClusterProtocol.readString(in);
+                String newNick = ClusterProtocol.readString(in);
+                long since = in.readLong();
+                listener.remoteNickChanged(oldNick, newNick);
+                boolean hadOld = removeUser(peer, oldNick);
+                boolean hasNew = applyJoin(peer, newNick, since);
+                if (hadOld && hasNew) {
+                    listener.remoteUserRenamed(oldNick, newNick);
+                } else if (hadOld) {
+                    listener.remoteUserLeft(oldNick);
+                } else if (hasNew) {
+                    listener.remoteUserJoined(newNick);
+                }
+                break;
+            }
+            case ClusterProtocol.BROADCAST:
+                listener.remoteBroadcast(in.readInt(), ClusterProtocol.readString(in), ClusterProtocol.readString(in));
+                break;
+            case ClusterProtocol.PRIVATE:
+                listener.remotePrivateMessage(in.readInt(), ClusterProtocol.readString(in),
+                        ClusterProtocol.readString(in), ClusterProtocol.readString(in));
+                break;
+            case ClusterProtocol.PING:
+                break;
+            default:
+                logger.log(Level.WARNING, "Неизвестный кадр {0} от узла {1}", new Object[]{frame[0], peer});
+        }
+    }
+
+    //снимок заменяет все, что было известно об узле
+    private void applySnapshot(String peer, Map<String, Long> users) {
+        for (Map.Entry<String, RemoteUser> entry : remoteUsers.entrySet()) {
+            if (entry.getValue().node.equals(peer) && !users.containsKey(entry.getKey())
+                    && remoteUsers.remove(entry.getKey(), entry.getValue())) {
+                listener.remoteUserLeft(entry.getKey());
+            }
+        }
+        for (Map.Entry<String, Long> user : users.entrySet()) {
+            if (applyJoin(peer, user.getKey(), user.getValue())) {
+                listener.remoteUserJoined(user.getKey());
+            }
+        }
+    }
+
+    //true - ник впервые стал известен как занятый на другом узле
+    private boolean applyJoin(String peer, String nick, long since) {
+        RemoteUser incoming = new RemoteUser(peer, since);
+        long localSince = listener.localNickSince(nick);
+        if (localSince >= 0) {
+            if (!incoming.winsOver(new RemoteUser(nodeId, localSince))) {
+                return false; //проиграл вход на том узле, там его и отключат
+            }
+            logger.log(Level.INFO, "Ник {0} раньше занят на узле {1}, местный вход отключается", new Object[]{nick, peer});
+            listener.nickConflict(nick);
+        }
+        boolean[] added = new boolean[1];
+        remoteUsers.compute(nick, (key, current) -> {
+            if (current == null || current.node.equals(peer) || incoming.winsOver(current)) {
+                added[0] = current == null;
+                return incoming;
+            }
+            return current;
+        });
+        return added[0];
+    }
+
+    private boolean removeUser(String peer, String nick) {
+        RemoteUser user = nick == null ? null : remoteUsers.get(nick);
+        return user != null && user.node.equals(peer) && remoteUsers.remove(nick, user);
+    }
+
+    //узел пропал - его пользователи вышли
+    private void dropNode(String peer) {
+        logger.log(Level.INFO, "Узел {0} отключился", peer);
+        for (Map.Entry<String, RemoteUser> entry : remoteUsers.entrySet()) {
+            if (entry.getValue().node.equals(peer) && remoteUsers.remove(entry.getKey(), entry.getValue())) {
+                listener.remoteUserLeft(entry.getKey());
+            }
+        }
+    }
+
+    private static DataInputStream payload(byte[] frame) {
+        return new DataInputStream(new ByteArrayInputStream(frame, 1, frame.length - 1));
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Ошибка закрытия соединения узла", e);
+        }
+    }
+
+    private static final class RemoteUser {
+        final String node;
+        final long since;
+
+        RemoteUser(String node, long since) {
+            this.node = node;
+            this.since = since;
+        }
+
+        //кто занял ник раньше; при равном времени - узел с меньшим id
+        boolean winsOver(RemoteUser other) {
+            return since < other.since || since == other.since && node.compareTo(other.node) < 0;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package ru.gb.java3.server.cluster;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+
+//кадры между узлами: длина (int), тип (байт), поля. строки - длина (int, -1 для null) и UTF-8.
+//с клиентским протоколом не пересекается: по этим соединениям ходят только узлы.
+//знакомство: принимающий узел шлет CHALLENGE, подключившийся отвечает HELLO с HMAC вызова
+//и своего id по общему секрету, принимающий - своим HELLO с подписью того же вызова
+final class ClusterProtocol {
+    static final int HELLO = 1;      //id узла, подпись вызова (длина и байты)
+    static final int SNAPSHOT = 2;   //все пользователи узла: количество, затем ник и время занятия ника
+    static final int JOIN = 3;       //ник, время занятия
+    static final int LEAVE = 4;      //ник
+    static final int RENAME = 5;     //старый ник, новый ник, время занятия нового
+    static final int BROADCAST = 6;  //id отправителя, отправитель, текст
+    static final int PRIVATE = 7;    //id отправителя, отправитель, получатель, текст
+    static final int PING = 8;
+    static final int CHALLENGE = 9;  //случайные байты (длина и байты), первым кадром от принимающего узла
+
+    static final int MAX_FRAME = 16 * 1024 * 1024;
+    //до знакомства узел ничем не подтвержден, большие кадры от него не читаем
+    static final int MAX_HANDSHAKE_FRAME = 4096;
+    static final int CHALLENGE_BYTES = 32;
+
+    private ClusterProtocol() {
+    }
+
+    static byte[] challenge(byte[] nonce) {
+        return frame(CHALLENGE, out -> writeBytes(out, nonce));
+    }
+
+    static byte[] hello(String nodeId, byte[] proof) {
+        return frame(HELLO, out -> {
+            writeString(out, nodeId);
+            writeBytes(out, proof);
+        });
+    }
+
+    //HMAC-SHA256 вызова и id узла: без секрета не подделать, на другой вызов не повторить
+    static byte[] sign(byte[] secret, byte[] nonce, String nodeId) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            mac.update(nonce);
+            mac.update(nodeId.getBytes(StandardCharsets.UTF_8));
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 недоступен", e); //входит в любую JRE
+        }
+    }
+
+    static byte[] snapshot(Map<String, Long> users) {
+        return frame(SNAPSHOT, out -> {
+            out.writeInt(users.size());
+            for (Map.Entry<String, Long> user : users.entrySet()) {
+                writeString(out, user.getKey());
+                out.writeLong(user.getValue());
+            }
+        });
+    }
+
+    static byte[] join(String nick, long since) {
+        return frame(JOIN, out -> {
+            writeString(out, nick);
+            out.writeLong(since);
+        });
+    }
+
+    static byte[] leave(String nick) {
+        return frame(LEAVE, out -> writeString(out, nick));
+    }
+
+    static byte[] rename(String oldNick, String newNick, long since) {
+        return frame(RENAME, out -> {
+            writeString(out, oldNick);
+            writeString(out, newNick);
+            out.writeLong(since);
+        });
+    }
+
+    static byte[] broadcast(int senderId, String sender, String message) {
+        return frame(BROADCAST, out -> {
+            out.writeInt(senderId);
+            writeString(out, sender);
+            writeString(out, message);
+        });
+    }
+
+    static byte[] privateMessage(int senderId, String sender, String receiver, String message) {
+        return frame(PRIVATE, out -> {
+            out.writeInt(senderId);
+            writeString(out, sender);
+            writeString(out, receiver);
+            writeString(out, message);
+        });
+    }
+
+    static byte[] ping() {
+        return frame(PING, out -> {
+        });
+    }
+
+    //тело следующего кадра вместе с байтом типа
+    static byte[] readFrame(DataInputStream in) throws IOException {
+        return readFrame(in, MAX_FRAME);
+    }
+
+    static byte[] readFrame(DataInputStream in, int maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < 1 || length > maxLength) {
+            throw new StreamCorruptedException("Invalid cluster frame length: " + length);
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return body;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_FRAME) {
+            throw new StreamCorruptedException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_HANDSHAKE_FRAME) {
+            throw new StreamCorruptedException("Invalid bytes length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static byte[] frame(int type, FieldWriter fields) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); //длина, заполняется ниже
+            out.writeByte(type);
+            fields.write(out);
+            byte[] frame = bytes.toByteArray();
+            int length = frame.length - 4;
+            frame[0] = (byte) (length >>> 24);
+            frame[1] = (byte) (length >>> 16);
+            frame[2] = (byte) (length >>> 8);
+            frame[3] = (byte) length;
+            return frame;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); //запись в память не падает
+        }
+    }
+
+    private interface FieldWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
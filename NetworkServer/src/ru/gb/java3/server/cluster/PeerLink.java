@@ -0,0 +1,183 @@
+package ru.gb.java3.server.cluster;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//исходящее соединение с одним узлом: по нему уходит все, что этот узел сообщает тому.
+//свой поток подключается, пишет накопившиеся кадры пачками и при обрыве переподключается.
+//после каждого подключения первым идет полный снимок пользователей, поэтому кадры,
+//потерянные при обрыве или переполнении очереди, восстанавливать не нужно
+class PeerLink {
+    private static final Logger logger = Logger.getLogger(PeerLink.class.getName());
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final long MAX_BACKOFF_MILLIS = 10000;
+
+    private final ClusterNode node;
+    private final String host;
+    private final int port;
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private volatile boolean connected;
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    private volatile String peerId;
+    private Thread thread;
+
+    PeerLink(ClusterNode node, String host, int port) {
+        this.node = node;
+        this.host = host;
+        this.port = port;
+    }
+
+    void start() {
+        thread = new Thread(this::run, "cluster-link-" + host + ":" + port);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        connected = false;
+        closeSocket();
+        thread.interrupt();
+    }
+
+    //кадр уходит, только пока связь есть. переполненная очередь рвет связь:
+    //после переподключения узел получит свежий снимок
+    void send(byte[] frame) {
+        if (connected && !queue.offer(frame)) {
+            logger.log(Level.WARNING, "Очередь к узлу {0} переполнена, соединение будет восстановлено", describe());
+            connected = false;
+            closeSocket();
+        }
+    }
+
+    //снимок встает в пустую очередь, дальше идут изменения. вызывается под блокировкой узла
+    void resync(byte[] snapshot) {
+        queue.clear();
+        queue.add(snapshot);
+        connected = true;
+    }
+
+    String getPeerId() {
+        return peerId;
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    private void run() {
+        long backoff = 500;
+        while (running) {
+            boolean linked = false;
+            try {
+                connect();
+                linked = true;
+                backoff = 500;
+                writeLoop();
+            } catch (IOException e) {
+                if (running) {
+                    logger.log(Level.FINE, "Нет связи с узлом {0}: {1}", new Object[]{describe(), e.getMessage()});
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                connected = false;
+                closeSocket();
+                if (linked && running) {
+                    logger.log(Level.INFO, "Связь с узлом {0} потеряна", describe());
+                }
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    //знакомство: вызов от узла, в ответ свой id с подписью, и id узла с его подписью того же вызова
+    private void connect() throws IOException {
+        Socket connection = new Socket();
+        socket = connection;
+        connection.setTcpNoDelay(true);
+        connection.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+        connection.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+        DataInputStream in = new DataInputStream(connection.getInputStream());
+        byte[] challenge = ClusterProtocol.readFrame(in, ClusterProtocol.MAX_HANDSHAKE_FRAME);
+        if (challenge[0] != ClusterProtocol.CHALLENGE) {
+            throw new IOException("Unexpected handshake from " + host + ":" + port);
+        }
+        byte[] nonce = ClusterProtocol.readBytes(fields(challenge));
+        OutputStream out = connection.getOutputStream();
+        out.write(ClusterProtocol.hello(node.getNodeId(), node.prove(nonce)));
+        out.flush();
+        byte[] reply;
+        try {
+            reply = ClusterProtocol.readFrame(in, ClusterProtocol.MAX_HANDSHAKE_FRAME);
+        } catch (EOFException e) {
+            throw new IOException("Node " + host + ":" + port + " rejected cluster secret", e);
+        }
+        if (reply[0] != ClusterProtocol.HELLO) {
+            throw new IOException("Unexpected handshake from " + host + ":" + port);
+        }
+        DataInputStream fields = fields(reply);
+        String id = ClusterProtocol.readString(fields);
+        if (!node.verify(nonce, id, ClusterProtocol.readBytes(fields))) {
+            throw new IOException("Node " + host + ":" + port + " failed cluster secret check");
+        }
+        peerId = id;
+        connection.setSoTimeout(0);
+        node.linkUp(this);
+        logger.log(Level.INFO, "Связь с узлом {0} установлена", describe());
+    }
+
+    private void writeLoop() throws IOException, InterruptedException {
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        List<byte[]> batch = new ArrayList<>();
+        while (running && connected) {
+            byte[] first = queue.poll(ClusterNode.PING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            batch.add(first == null ? ClusterProtocol.ping() : first);
+            queue.drainTo(batch);
+            for (byte[] frame : batch) {
+                out.write(frame);
+            }
+            out.flush();
+            batch.clear();
+        }
+    }
+
+    private static DataInputStream fields(byte[] frame) {
+        return new DataInputStream(new ByteArrayInputStream(frame, 1, frame.length - 1));
+    }
+
+    private void closeSocket() {
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Ошибка закрытия соединения с узлом", e);
+            }
+        }
+    }
+
+    private String describe() {
+        return peerId != null ? peerId + " (" + host + ":" + port + ")" : host + ":" + port;
+    }
+}
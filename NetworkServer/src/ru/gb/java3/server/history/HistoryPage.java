@@ -0,0 +1,22 @@
+package ru.gb.java3.server.history;
+
+import java.util.List;
+
+//страница истории: сообщения от старых к новым и опорный id для следующей страницы (0 - дальше пусто)
+public final class HistoryPage {
+    private final List<StoredMessage> messages;
+    private final long nextAnchorId;
+
+    HistoryPage(List<StoredMessage> messages, long nextAnchorId) {
+        this.messages = messages;
+        this.nextAnchorId = nextAnchorId;
+    }
+
+    public List<StoredMessage> getMessages() {
+        return messages;
+    }
+
+    public long getNextAnchorId() {
+        return nextAnchorId;
+    }
+}
@@ -0,0 +1,289 @@
+package ru.gb.java3.server.history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+//один файл журнала истории. имя - id первого сообщения, записи: длина, CRC32, данные.
+//дописывает только поток записи MessageLog, читать можно из любого потока по позиции
+class LogSegment {
+    static final String SUFFIX = ".log";
+    static final int RECORD_HEADER = 8;
+    static final int MAX_RECORD = 4 * 1024 * 1024;
+
+    private final long baseId;
+    private final Path path;
+    private final FileChannel channel;
+    private volatile long size;
+    private volatile SparseIndex index;
+    //только поток записи
+    private int indexedRecords;
+    private long[] pendingIndex = new long[3 * 8];
+    private int pendingCount;
+
+    private LogSegment(long baseId, Path path, FileChannel channel, long size) {
+        this.baseId = baseId;
+        this.path = path;
+        this.channel = channel;
+        this.size = size;
+    }
+
+    static LogSegment create(Path directory, long baseId) throws IOException {
+        Path path = directory.resolve(fileName(baseId));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new LogSegment(baseId, path, channel, channel.size());
+    }
+
+    static String fileName(long baseId) {
+        return String.format("%020d%s", baseId, SUFFIX);
+    }
+
+    //-1, если это не файл сегмента
+    static long parseBaseId(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.endsWith(SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    //проверить записи с начала, отрезать оборванный хвост и построить индекс.
+    //возвращает id последнего сообщения или baseId - 1
+    long recover() throws IOException {
+        SparseIndex built = new SparseIndex();
+        long lastId = scan(built, true);
+        index = built;
+        return lastId;
+    }
+
+    //индекс старого сегмента строится при первом обращении одним проходом по файлу
+    SparseIndex index() throws IOException {
+        SparseIndex current = index;
+        if (current == null) {
+            synchronized (this) {
+                current = index;
+                if (current == null) {
+                    current = new SparseIndex();
+                    scan(current, false);
+                    index = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private long scan(SparseIndex target, boolean truncate) throws IOException {
+        long position = 0;
+        long lastId = baseId - 1;
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        CRC32 crc = new CRC32();
+        int records = 0;
+        while (position + RECORD_HEADER <= fileSize) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length <= 0 || length > MAX_RECORD || position + RECORD_HEADER + length > fileSize) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(body, position + RECORD_HEADER);
+            crc.reset();
+            crc.update(body.array(), 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            lastId = body.getLong(0);
+            if (records++ % SparseIndex.INTERVAL == 0) {
+                target.add(lastId, body.getLong(8), position);
+            }
+            position += RECORD_HEADER + length;
+        }
+        if (truncate) {
+            if (position < fileSize) {
+                channel.truncate(position);
+            }
+            size = position;
+            indexedRecords = records;
+        }
+        return lastId;
+    }
+
+    //поток записи: запись легла по этой позиции. в индекс попадет после publishIndex(),
+    //то есть когда данные уже в файле
+    void noteRecord(long id, long timestamp, long position) throws IOException {
+        index();
+        if (indexedRecords++ % SparseIndex.INTERVAL == 0) {
+            if (pendingCount == pendingIndex.length / 3) {
+                pendingIndex = Arrays.copyOf(pendingIndex, pendingIndex.length * 2);
+            }
+            int offset = pendingCount++ * 3;
+            pendingIndex[offset] = id;
+            pendingIndex[offset + 1] = timestamp;
+            pendingIndex[offset + 2] = position;
+        }
+    }
+
+    void publishIndex() {
+        for (int i = 0; i < pendingCount; i++) {
+            index.add(pendingIndex[i * 3], pendingIndex[i * 3 + 1], pendingIndex[i * 3 + 2]);
+        }
+        pendingCount = 0;
+    }
+
+    //все сообщения блока между точкой индекса entry и следующей (или концом записанного)
+    List<StoredMessage> readBlock(SparseIndex blockIndex, int entry) throws IOException {
+        long start = blockIndex.position(entry);
+        long end = entry + 1 < blockIndex.size() ? blockIndex.position(entry + 1) : size;
+        List<StoredMessage> messages = new ArrayList<>(SparseIndex.INTERVAL);
+        if (end <= start) {
+            return messages;
+        }
+        ByteBuffer block = ByteBuffer.allocate((int) (end - start));
+        readFully(block, start);
+        block.flip();
+        while (block.remaining() >= RECORD_HEADER) {
+            int length = block.getInt();
+            block.getInt(); //CRC проверен при записи или восстановлении
+            if (length <= 0 || length > block.remaining()) {
+                break;
+            }
+            ByteBuffer body = block.slice();
+            body.limit(length);
+            messages.add(decode(body));
+            block.position(block.position() + length);
+        }
+        return messages;
+    }
+
+    void append(ByteBuffer records) throws IOException {
+        long position = size;
+        while (records.hasRemaining()) {
+            position += channel.write(records, position);
+        }
+        size = position;
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Неожиданный конец сегмента " + path);
+            }
+            position += read;
+        }
+    }
+
+    long getBaseId() {
+        return baseId;
+    }
+
+    long size() {
+        return size;
+    }
+
+    long lastModified() throws IOException {
+        return Files.getLastModifiedTime(path).toMillis();
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    //кодирование записи в конец buffer, буфер растет при необходимости
+    static ByteBuffer encode(ByteBuffer buffer, StoredMessage message) {
+        byte[] sender = bytes(message.getSenderNick());
+        byte[] receiver = bytes(message.getReceiverNick());
+        byte[] text = bytes(message.getText());
+        int length = 8 + 8 + 4 + 4 + 3 * 4 + length(sender) + length(receiver) + length(text);
+        buffer = ensureCapacity(buffer, RECORD_HEADER + length);
+        int start = buffer.position();
+        buffer.position(start + RECORD_HEADER);
+        buffer.putLong(message.getId())
+                .putLong(message.getTimestamp())
+                .putInt(message.getSenderId())
+                .putInt(message.getReceiverId());
+        putBytes(buffer, sender);
+        putBytes(buffer, receiver);
+        putBytes(buffer, text);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), start + RECORD_HEADER, length);
+        buffer.putInt(start, length).putInt(start + 4, (int) crc.getValue());
+        return buffer;
+    }
+
+    //body - данные записи без заголовка
+    static StoredMessage decode(ByteBuffer body) {
+        long id = body.getLong();
+        long timestamp = body.getLong();
+        int senderId = body.getInt();
+        int receiverId = body.getInt();
+        String sender = getString(body);
+        String receiver = getString(body);
+        String text = getString(body);
+        return new StoredMessage(id, timestamp, senderId, sender, receiverId, receiver, text);
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int extra) {
+        if (buffer.remaining() >= extra) {
+            return buffer;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + extra));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(value.length).put(value);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,376 @@
+package ru.gb.java3.server.history;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//журнал сообщений чата на диске: файлы-сегменты, только дописываются, новый сегмент
+//начинается при превышении segmentBytes. append() лишь присваивает id и ставит сообщение
+//в очередь, поток записи забирает все накопившееся одной пачкой и делает один force()
+//на пачку (групповая фиксация). старые сегменты удаляются по возрасту и количеству.
+//для чтения у каждого сегмента есть разреженный индекс, страница читается с позиции, а не сканом
+public class MessageLog {
+    private static final Logger logger = Logger.getLogger(MessageLog.class.getName());
+    //как часто без записей проверять сегменты на устаревание
+    private static final long RETENTION_CHECK_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int INITIAL_BATCH_BUFFER = 64 * 1024;
+    //сколько записей самое большее просматривается ради одной страницы
+    private static final int MAX_SCAN_RECORDS = 20000;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final long retentionMillis; //0 - без ограничения по возрасту
+    private final int maxSegments; //0 - без ограничения по количеству
+    private final boolean sync;
+    private final int maxPending;
+    private final ConcurrentSkipListMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasPending = lock.newCondition();
+    private ArrayList<StoredMessage> pending = new ArrayList<>();
+    private ArrayList<StoredMessage> spare = new ArrayList<>(); //только поток записи
+    private long lastId;
+    private volatile long committedId;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean running;
+
+    private LogSegment active; //только поток записи
+    private ByteBuffer batchBuffer = ByteBuffer.allocate(INITIAL_BATCH_BUFFER);
+    private Thread writer;
+
+    public MessageLog(String directory, long segmentBytes, long retentionMillis, int maxSegments, boolean sync, int maxPending) {
+        this.directory = Paths.get(directory);
+        this.segmentBytes = segmentBytes;
+        this.retentionMillis = retentionMillis;
+        this.maxSegments = maxSegments;
+        this.sync = sync;
+        this.maxPending = Math.max(1, maxPending);
+    }
+
+    public void start() {
+        try {
+            Files.createDirectories(directory);
+            List<Long> baseIds = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + LogSegment.SUFFIX)) {
+                for (Path file : files) {
+                    long baseId = LogSegment.parseBaseId(file);
+                    if (baseId > 0) {
+                        baseIds.add(baseId);
+                    }
+                }
+            }
+            baseIds.sort(null);
+            for (long baseId : baseIds) {
+                segments.put(baseId, LogSegment.create(directory, baseId));
+            }
+            if (segments.isEmpty()) {
+                active = LogSegment.create(directory, 1);
+                segments.put(1L, active);
+            } else {
+                active = segments.lastEntry().getValue();
+            }
+            lastId = active.recover();
+            committedId = lastId;
+            applyRetention();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось открыть журнал истории " + directory, e);
+        }
+        running = true;
+        writer = new Thread(this::writeLoop, "message-log");
+        writer.setDaemon(true);
+        writer.start();
+        logger.log(Level.INFO, "Журнал истории открыт: сегментов {0}, последнее сообщение {1,number,#}",
+                new Object[]{segments.size(), lastId});
+    }
+
+    //записать сообщение. возвращает его id или -1, если журнал закрыт или поток записи
+    //отстал на maxPending сообщений. не ждет никогда: зовется из потоков ввода-вывода
+    //и цикла событий, медленный диск не должен задерживать рассылку
+    public long append(int senderId, String senderNick, int receiverId, String receiverNick, String text) {
+        lock.lock();
+        try {
+            if (!running) {
+                return -1;
+            }
+            if (pending.size() >= maxPending) {
+                dropped.incrementAndGet();
+                return -1;
+            }
+            StoredMessage message = new StoredMessage(++lastId, System.currentTimeMillis(),
+                    senderId, senderNick, receiverId, receiverNick, text);
+            pending.add(message);
+            if (pending.size() == 1) {
+                hasPending.signal();
+            }
+            return message.getId();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //страница сообщений, подходящих под filter, до опорной точки (older) или после нее.
+    //опорная точка - anchorId, если задан, иначе anchorTime, иначе конец или начало журнала.
+    //блок ищется по разреженному индексу, за один запрос просматривается не больше MAX_SCAN_RECORDS
+    public HistoryPage readPage(Predicate<StoredMessage> filter, long anchorId, long anchorTime, boolean older, int limit) {
+        try {
+            return older ? readOlder(filter, anchorId, anchorTime, limit) : readNewer(filter, anchorId, anchorTime, limit);
+        } catch (IOException e) {
+            //сегмент мог быть удален по сроку хранения прямо во время чтения
+            logger.log(Level.WARNING, "Ошибка чтения журнала истории", e);
+            return new HistoryPage(new ArrayList<>(), 0);
+        }
+    }
+
+    private HistoryPage readOlder(Predicate<StoredMessage> filter, long anchorId, long anchorTime, int limit) throws IOException {
+        List<StoredMessage> result = new ArrayList<>();
+        Map.Entry<Long, LogSegment> segment;
+        int block;
+        if (anchorId > 0) {
+            segment = segments.floorEntry(anchorId - 1);
+            block = segment == null ? -1 : segment.getValue().index().floorById(anchorId - 1);
+        } else if (anchorTime > 0) {
+            segment = segments.lastEntry();
+            while (segment != null && !startsBefore(segment.getValue(), anchorTime)) {
+                segment = segments.lowerEntry(segment.getKey());
+            }
+            block = segment == null ? -1 : segment.getValue().index().floorByTime(anchorTime - 1);
+        } else {
+            segment = segments.lastEntry();
+            block = segment == null ? -1 : segment.getValue().index().size() - 1;
+        }
+        int scanned = 0;
+        while (segment != null) {
+            SparseIndex index = segment.getValue().index();
+            for (; block >= 0; block--) {
+                List<StoredMessage> records = segment.getValue().readBlock(index, block);
+                scanned += records.size();
+                for (int i = records.size() - 1; i >= 0; i--) {
+                    StoredMessage message = records.get(i);
+                    boolean before = anchorId > 0 ? message.getId() < anchorId
+                            : anchorTime <= 0 || message.getTimestamp() < anchorTime;
+                    if (before && filter.test(message)) {
+                        result.add(message);
+                        if (result.size() >= limit) {
+                            Collections.reverse(result);
+                            return new HistoryPage(result, message.getId());
+                        }
+                    }
+                }
+                if (scanned >= MAX_SCAN_RECORDS && !records.isEmpty()) {
+                    Collections.reverse(result);
+                    return new HistoryPage(result, records.get(0).getId());
+                }
+            }
+            segment = segments.lowerEntry(segment.getKey());
+            block = segment == null ? -1 : segment.getValue().index().size() - 1;
+        }
+        Collections.reverse(result);
+        return new HistoryPage(result, 0);
+    }
+
+    private HistoryPage readNewer(Predicate<StoredMessage> filter, long anchorId, long anchorTime, int limit) throws IOException {
+        List<StoredMessage> result = new ArrayList<>();
+        Map.Entry<Long, LogSegment> segment;
+        int block;
+        if (anchorId > 0) {
+            segment = segments.floorEntry(anchorId + 1);
+            if (segment == null) {
+                segment = segments.firstEntry();
+            }
+            block = segment == null ? 0 : Math.max(0, segment.getValue().index().floorById(anchorId + 1));
+        } else if (anchorTime > 0) {
+            segment = segments.firstEntry();
+            Map.Entry<Long, LogSegment> next = segment == null ? null : segments.higherEntry(segment.getKey());
+            while (next != null && startsBefore(next.getValue(), anchorTime + 1)) {
+                segment = next;
+                next = segments.higherEntry(segment.getKey());
+            }
+            block = segment == null ? 0 : Math.max(0, segment.getValue().index().floorByTime(anchorTime));
+        } else {
+            segment = segments.firstEntry();
+            block = 0;
+        }
+        int scanned = 0;
+        while (segment != null) {
+            SparseIndex index = segment.getValue().index();
+            for (; block < index.size(); block++) {
+                List<StoredMessage> records = segment.getValue().readBlock(index, block);
+                scanned += records.size();
+                for (StoredMessage message : records) {
+                    boolean after = anchorId > 0 ? message.getId() > anchorId : message.getTimestamp() >= anchorTime;
+                    if (after && filter.test(message)) {
+                        result.add(message);
+                        if (result.size() >= limit) {
+                            return new HistoryPage(result, message.getId());
+                        }
+                    }
+                }
+                if (scanned >= MAX_SCAN_RECORDS && !records.isEmpty()) {
+                    return new HistoryPage(result, records.get(records.size() - 1).getId());
+                }
+            }
+            segment = segments.higherEntry(segment.getKey());
+            block = 0;
+        }
+        return new HistoryPage(result, 0);
+    }
+
+    //первое сообщение сегмента раньше time
+    private static boolean startsBefore(LogSegment segment, long time) throws IOException {
+        SparseIndex index = segment.index();
+        return index.size() > 0 && index.time(0) < time;
+    }
+
+    //id последнего сообщения, уже записанного на диск
+    public long getCommittedId() {
+        return committedId;
+    }
+
+    //сообщения, не попавшие в журнал из-за переполненной очереди записи
+    public long getDroppedMessages() {
+        return dropped.get();
+    }
+
+    public void stop() {
+        lock.lock();
+        try {
+            running = false;
+            hasPending.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (dropped.get() > 0) {
+            logger.log(Level.WARNING, "Журнал истории не успевал писать, пропущено сообщений: {0}", dropped.get());
+        }
+        if (writer != null) {
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (LogSegment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            ArrayList<StoredMessage> batch = null;
+            lock.lock();
+            try {
+                if (pending.isEmpty() && running) {
+                    try {
+                        hasPending.await(RETENTION_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                }
+                if (!pending.isEmpty()) {
+                    batch = pending;
+                    pending = spare;
+                } else if (!running) {
+                    return; //остановлен и все записано
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (batch == null) {
+                applyRetention(); //записей не было, самое время проверить старые сегменты
+                continue;
+            }
+            try {
+                writeBatch(batch);
+                committedId = batch.get(batch.size() - 1).getId();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Ошибка записи журнала истории, потеряно сообщений: " + batch.size(), e);
+            }
+            batch.clear();
+            spare = batch;
+        }
+    }
+
+    private void writeBatch(List<StoredMessage> batch) throws IOException {
+        batchBuffer.clear();
+        for (StoredMessage message : batch) {
+            int before = batchBuffer.position();
+            batchBuffer = LogSegment.encode(batchBuffer, message);
+            int recordLength = batchBuffer.position() - before;
+            //сегмент переполнится - дописать накопленное и начать новый с этого сообщения
+            if (active.size() + before + recordLength > segmentBytes && active.size() + before > 0) {
+                ByteBuffer rest = ByteBuffer.allocate(recordLength);
+                rest.put(batchBuffer.array(), before, recordLength);
+                batchBuffer.position(before);
+                flushBuffer();
+                roll(message.getId());
+                batchBuffer.clear();
+                rest.flip();
+                batchBuffer.put(rest);
+                before = 0;
+            }
+            active.noteRecord(message.getId(), message.getTimestamp(), active.size() + before);
+        }
+        flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (batchBuffer.position() == 0) {
+            return;
+        }
+        batchBuffer.flip();
+        active.append(batchBuffer);
+        if (sync) {
+            active.force();
+        }
+        active.publishIndex();
+        batchBuffer.clear();
+    }
+
+    private void roll(long baseId) throws IOException {
+        active = LogSegment.create(directory, baseId);
+        segments.put(baseId, active);
+        applyRetention();
+    }
+
+    //текущий сегмент не удаляется никогда
+    private void applyRetention() {
+        long now = System.currentTimeMillis();
+        while (segments.size() > 1) {
+            Map.Entry<Long, LogSegment> oldest = segments.firstEntry();
+            LogSegment segment = oldest.getValue();
+            boolean tooMany = maxSegments > 0 && segments.size() > maxSegments;
+            boolean tooOld;
+            try {
+                tooOld = retentionMillis > 0 && now - segment.lastModified() > retentionMillis;
+            } catch (IOException e) {
+                tooOld = false;
+            }
+            if (!tooMany && !tooOld) {
+                return;
+            }
+            segments.remove(oldest.getKey());
+            try {
+                segment.delete();
+                logger.log(Level.INFO, "Удален сегмент истории с сообщения {0,number,#}", segment.getBaseId());
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Не удалось удалить сегмент истории", e);
+            }
+        }
+    }
+}
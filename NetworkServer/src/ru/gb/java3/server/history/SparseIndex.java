@@ -0,0 +1,90 @@
+package ru.gb.java3.server.history;
+
+import java.util.Arrays;
+
+//разреженный индекс сегмента: id, время и позиция каждой INTERVAL-й записи, первая запись есть всегда.
+//страница ищется двоичным поиском и чтением одного блока между соседними точками.
+//дописывает один поток, читать можно из любых: сначала size, потом массивы
+class SparseIndex {
+    static final int INTERVAL = 32;
+
+    private volatile Entries entries = new Entries(16);
+    private volatile int size;
+
+    void add(long id, long timestamp, long position) {
+        Entries current = entries;
+        if (size == current.ids.length) {
+            current = current.grow();
+            entries = current;
+        }
+        current.ids[size] = id;
+        current.times[size] = timestamp;
+        current.positions[size] = position;
+        size = size + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long id(int entry) {
+        return entries.ids[entry];
+    }
+
+    long time(int entry) {
+        return entries.times[entry];
+    }
+
+    long position(int entry) {
+        return entries.positions[entry];
+    }
+
+    //последняя точка с id <= target, -1 если все больше
+    int floorById(long target) {
+        int count = size;
+        return floor(entries.ids, count, target);
+    }
+
+    //последняя точка со временем <= target
+    int floorByTime(long target) {
+        int count = size;
+        return floor(entries.times, count, target);
+    }
+
+    private static int floor(long[] values, int count, long target) {
+        int low = 0;
+        int high = count - 1;
+        int result = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] <= target) {
+                result = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return result;
+    }
+
+    private static final class Entries {
+        final long[] ids;
+        final long[] times;
+        final long[] positions;
+
+        Entries(int capacity) {
+            this(new long[capacity], new long[capacity], new long[capacity]);
+        }
+
+        private Entries(long[] ids, long[] times, long[] positions) {
+            this.ids = ids;
+            this.times = times;
+            this.positions = positions;
+        }
+
+        Entries grow() {
+            int capacity = ids.length * 2;
+            return new Entries(Arrays.copyOf(ids, capacity), Arrays.copyOf(times, capacity), Arrays.copyOf(positions, capacity));
+        }
+    }
+}
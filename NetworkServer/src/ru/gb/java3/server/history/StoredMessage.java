@@ -0,0 +1,58 @@
+package ru.gb.java3.server.history;
+
+//сообщение в журнале истории. receiverId == 0 - общий чат
+public final class StoredMessage {
+    public static final int BROADCAST = 0;
+    //приват пользователю другого узла: его id здесь не известен, только ник
+    public static final int REMOTE_RECEIVER = -1;
+
+    private final long id;
+    private final long timestamp;
+    private final int senderId;
+    private final String senderNick;
+    private final int receiverId;
+    private final String receiverNick;
+    private final String text;
+
+    public StoredMessage(long id, long timestamp, int senderId, String senderNick, int receiverId, String receiverNick, String text) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.senderId = senderId;
+        this.senderNick = senderNick;
+        this.receiverId = receiverId;
+        this.receiverNick = receiverNick;
+        this.text = text;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getSenderId() {
+        return senderId;
+    }
+
+    public String getSenderNick() {
+        return senderNick;
+    }
+
+    public int getReceiverId() {
+        return receiverId;
+    }
+
+    public String getReceiverNick() {
+        return receiverNick;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public boolean isBroadcast() {
+        return receiverId == BROADCAST;
+    }
+}
@@ -0,0 +1,165 @@
+package ru.gb.java3.server.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+//асинхронный обработчик журнала. publish() только кладет запись в заранее выделенное кольцо,
+//форматирование и запись в файл или консоль делает фоновый поток.
+//кольцо заполнено - запись выбрасывается и учитывается, поток клиента никогда не ждет диск
+public class AsyncLogHandler extends Handler {
+    //сколько ждать новых записей, прежде чем проверить остановку
+    private static final long IDLE_PARK_NANOS = 100_000_000L;
+
+    private final Handler[] targets;
+    private final LogRecord[] slots;
+    //номер круга для каждой ячейки: по нему писатели и читатель понимают, чья очередь
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread worker;
+    private long head; //только фоновый поток
+    private long reportedDrops; //только фоновый поток
+    private volatile boolean waiting;
+    private volatile boolean running = true;
+
+    public AsyncLogHandler(String name, int capacity, Handler... targets) {
+        this.targets = targets;
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new LogRecord[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.worker = new Thread(this::drainLoop, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!running || !isLoggable(record)) {
+            return;
+        }
+        if (!offer(record)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        if (waiting) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private boolean offer(LogRecord record) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = record;
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false; //читатель отстал на целый круг
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    private LogRecord poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        LogRecord record = slots[index];
+        slots[index] = null;
+        sequences.lazySet(index, head + mask + 1);
+        head++;
+        return record;
+    }
+
+    private void drainLoop() {
+        while (running) {
+            if (drain() == 0) {
+                waiting = true;
+                if (isEmpty() && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                waiting = false;
+            }
+        }
+        drain();
+    }
+
+    private boolean isEmpty() {
+        return sequences.get((int) head & mask) != head + 1;
+    }
+
+    private int drain() {
+        int count = 0;
+        LogRecord record;
+        while ((record = poll()) != null) {
+            write(record);
+            count++;
+        }
+        long drops = dropped.get();
+        if (drops != reportedDrops) {
+            LogRecord warning = new LogRecord(Level.WARNING, "Журнал не успевает, пропущено записей: " + (drops - reportedDrops));
+            warning.setLoggerName(AsyncLogHandler.class.getName());
+            reportedDrops = drops;
+            write(warning);
+        }
+        if (count > 0) {
+            for (Handler target : targets) {
+                target.flush();
+            }
+        }
+        return count;
+    }
+
+    private void write(LogRecord record) {
+        for (Handler target : targets) {
+            try {
+                target.publish(record);
+            } catch (RuntimeException e) {
+                reportError(null, e, ErrorManager.WRITE_FAILURE);
+            }
+        }
+    }
+
+    public long getDroppedRecords() {
+        return dropped.get();
+    }
+
+    @Override
+    public void flush() {
+        //фоновый поток сбрасывает цели после каждой пачки
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Handler target : targets) {
+            target.close();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package ru.gb.java3.server.log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Date;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+//как SimpleFormatter, но вместо класса и метода пишет имя логгера. источник записи
+//LogRecord вычисляет обходом стека, а в фоновом потоке AsyncLogHandler стека вызывающего уже нет
+final class LoggerNameFormatter extends Formatter {
+    private static final String FORMAT = "%1$tF %1$tT %2$s%n%3$s: %4$s%5$s%n";
+
+    @Override
+    public String format(LogRecord record) {
+        String thrown = "";
+        if (record.getThrown() != null) {
+            StringWriter text = new StringWriter();
+            PrintWriter out = new PrintWriter(text);
+            out.println();
+            record.getThrown().printStackTrace(out);
+            out.close();
+            thrown = text.toString();
+        }
+        return String.format(FORMAT, new Date(record.getMillis()), record.getLoggerName(),
+                record.getLevel().getLocalizedName(), formatMessage(record), thrown);
+    }
+}
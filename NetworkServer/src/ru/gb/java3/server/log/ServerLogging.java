@@ -0,0 +1,48 @@
+package ru.gb.java3.server.log;
+
+import java.io.IOException;
+import java.util.logging.FileHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//журналы сервера: файл и консоль пишутся фоновыми потоками через AsyncLogHandler.
+//уровень логгера INFO, поэтому FINE и ниже отсекаются до создания записи.
+//в файлах журнала имя логгера, а не класс и метод: их поиск по стеку дороже самой записи.
+//обработчики корневого логгера сохраняют свой формат
+public final class ServerLogging {
+    private static volatile int bufferSize = 8192;
+
+    private ServerLogging() {
+    }
+
+    //обработчики корневого логгера (обычно консоль) переводятся на фоновый поток
+    public static synchronized void install(int capacity) {
+        bufferSize = capacity;
+        Logger root = Logger.getLogger("");
+        Handler[] handlers = root.getHandlers();
+        for (Handler handler : handlers) {
+            if (handler instanceof AsyncLogHandler) {
+                return;
+            }
+        }
+        for (Handler handler : handlers) {
+            root.removeHandler(handler);
+        }
+        if (handlers.length > 0) {
+            root.addHandler(new AsyncLogHandler("log-console", bufferSize, handlers));
+        }
+    }
+
+    public static void addFileHandler(Logger logger, String fileName) {
+        try {
+            FileHandler handler = new FileHandler(fileName, true);
+            handler.setFormatter(new LoggerNameFormatter());
+            handler.setLevel(Level.INFO);
+            logger.addHandler(new AsyncLogHandler("log-" + fileName, bufferSize, handler));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Не удалось открыть файл журнала " + fileName, e);
+        }
+        logger.setLevel(Level.INFO);
+    }
+}
@@ -0,0 +1,62 @@
+package ru.gb.java3.server.room;
+
+import ru.gb.java3.server.client.ClientHandler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+//комната: свой набор участников и своя блокировка на изменения состава,
+//поэтому вход и выход в одной комнате не задерживают другие
+public class Room {
+    private final String name;
+    private final Set<ClientHandler> members = ConcurrentHashMap.newKeySet();
+    //вход, выход и уведомления о них идут в одном порядке. держится на всю рассылку участникам,
+    //и в режиме VIRTUAL ее ждут виртуальные потоки - на мониторе каждый занял бы несущий поток
+    final ReentrantLock lock = new ReentrantLock();
+    boolean closed; //удалена из реестра, под lock
+
+    Room(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    boolean add(ClientHandler client) {
+        return members.add(client);
+    }
+
+    boolean remove(ClientHandler client) {
+        return members.remove(client);
+    }
+
+    boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    public boolean contains(ClientHandler client) {
+        return members.contains(client);
+    }
+
+    //слабо согласованный обзор для рассылки без копирования
+    public Collection<ClientHandler> getMembers() {
+        return members;
+    }
+
+    public List<String> getMemberNames() {
+        List<String> names = new ArrayList<>(members.size());
+        for (ClientHandler member : members) {
+            names.add(member.getUserName());
+        }
+        return names;
+    }
+
+    public int size() {
+        return members.size();
+    }
+}
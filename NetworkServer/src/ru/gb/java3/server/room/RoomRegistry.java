@@ -0,0 +1,64 @@
+package ru.gb.java3.server.room;
+
+import ru.gb.java3.server.client.ClientHandler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+//комнаты по имени. комната создается первым вошедшим и удаляется, когда выходит последний.
+//изменения состава - под блокировкой своей комнаты, рассылка - без блокировок
+public class RoomRegistry {
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+
+    //войти в комнату; joined вызывается под блокировкой комнаты уже после добавления.
+    //false - клиент уже в комнате
+    public boolean join(String name, ClientHandler client, Consumer<Room> joined) {
+        while (true) {
+            Room room = rooms.computeIfAbsent(name, Room::new);
+            room.lock.lock();
+            try {
+                if (room.closed) {
+                    continue; //последний участник только что ушел, комнату создадим заново
+                }
+                if (!room.add(client)) {
+                    return false;
+                }
+                joined.accept(room);
+                return true;
+            } finally {
+                room.lock.unlock();
+            }
+        }
+    }
+
+    //выйти из комнаты; left вызывается под блокировкой комнаты уже после удаления.
+    //false - клиента в комнате не было
+    public boolean leave(String name, ClientHandler client, Consumer<Room> left) {
+        Room room = get(name);
+        if (room == null) {
+            return false;
+        }
+        room.lock.lock();
+        try {
+            if (room.closed || !room.remove(client)) {
+                return false;
+            }
+            left.accept(room);
+            if (room.isEmpty()) {
+                room.closed = true;
+                rooms.remove(name, room);
+            }
+            return true;
+        } finally {
+            room.lock.unlock();
+        }
+    }
+
+    public Room get(String name) {
+        return name == null ? null : rooms.get(name);
+    }
+
+    public int size() {
+        return rooms.size();
+    }
+}
@@ -0,0 +1,52 @@
+package ru.gb.java3.server.timer;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+//отложенная задача в колесе. связный список ячейки хранится прямо в самих таймаутах,
+//так что на таймаут приходится один небольшой объект без лишних оберток
+public final class Timeout {
+    private static final int ST_INIT = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    private final HashedWheelTimer timer;
+    private final Runnable task;
+    final long deadline; //наносекунды от старта таймера
+    long remainingRounds;
+    Timeout next;
+    Timeout prev;
+    HashedWheelTimer.Bucket bucket;
+    private volatile int state = ST_INIT;
+
+    Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+        this.timer = timer;
+        this.task = task;
+        this.deadline = deadline;
+    }
+
+    //false - задача уже выполнилась или отменена раньше
+    public boolean cancel() {
+        if (!STATE.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+            return false;
+        }
+        timer.cancelled(this);
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return state == ST_CANCELLED;
+    }
+
+    public boolean isExpired() {
+        return state == ST_EXPIRED;
+    }
+
+    void expire() {
+        if (!STATE.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+            return;
+        }
+        timer.expired(task);
+    }
+}
@@ -0,0 +1,14 @@
+package ru.gb.java3.server.transport;
+
+import ru.gb.java3.clientserver.codec.Frame;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+//соединение с клиентом, через которое ClientHandler отправляет готовые кадры
+public interface ClientConnection {
+    void send(Frame frame) throws IOException;
+    void close();
+    String getRemoteAddress();
+    InetAddress getRemoteHost(); //null, если адрес неизвестен
+}
@@ -0,0 +1,184 @@
+package ru.gb.java3.server.transport;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//цикл событий одного потока: свои Selector, каналы и очередь записи
+class EventLoop implements Runnable {
+    private static final Logger logger = Logger.getLogger(EventLoop.class.getName());
+    private final ReactorTransport transport;
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+    private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    EventLoop(ReactorTransport transport, String name) throws IOException {
+        this.transport = transport;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    void register(SocketChannel channel) {
+        newChannels.add(channel);
+        selector.wakeup();
+    }
+
+    //выполнить задачу в потоке цикла
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    //выполнить задачу в потоке цикла через delay, по общему таймеру сервера
+    void schedule(Runnable task, long delay, TimeUnit unit) {
+        transport.getTimer().newTimeout(() -> execute(task), delay, unit);
+    }
+
+    void scheduleWrite(NioConnection connection) {
+        pendingWrites.add(connection);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                registerNewChannels();
+                runTasks();
+                flushPendingWrites();
+                //запись, поставленная в очередь из этого же потока, не должна ждать следующего события
+                if (pendingWrites.isEmpty() && tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (RuntimeException e) {
+                        failed(connection, e);
+                    }
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Ошибка в цикле событий " + thread.getName(), e);
+            }
+        }
+        closeAll();
+    }
+
+    private void registerNewChannels() {
+        SocketChannel channel;
+        while ((channel = newChannels.poll()) != null) {
+            NioConnection connection = new NioConnection(this, channel, transport.newOutboundQueue());
+            try {
+                connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+            } catch (ClosedChannelException e) {
+                continue;
+            }
+            try {
+                transport.onConnected(connection);
+            } catch (RuntimeException e) {
+                failed(connection, e);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Ошибка задачи в цикле событий " + thread.getName(), e);
+            }
+        }
+    }
+
+    private void flushPendingWrites() {
+        NioConnection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            try {
+                connection.flush();
+            } catch (RuntimeException e) {
+                failed(connection, e);
+            }
+        }
+    }
+
+    //ошибка в обработке одного клиента: закрывается только его соединение, цикл работает дальше
+    private void failed(NioConnection connection, RuntimeException e) {
+        logger.log(Level.SEVERE, "Ошибка обработки клиента " + connection.getRemoteAddress(), e);
+        try {
+            connection.terminate();
+        } catch (RuntimeException closeError) {
+            logger.log(Level.SEVERE, "Ошибка закрытия клиента " + connection.getRemoteAddress(), closeError);
+        }
+    }
+
+    //цикл уже остановлен, мягкое закрытие ничего бы не дописало: отложенные задачи выполняются здесь,
+    //а каналы закрываются сразу, с отпиской обработчиков
+    private void closeAll() {
+        runTasks();
+        SocketChannel channel;
+        while ((channel = newChannels.poll()) != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Ошибка закрытия канала", e);
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof NioConnection) {
+                NioConnection connection = (NioConnection) attachment;
+                try {
+                    connection.terminate();
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, "Ошибка закрытия клиента " + connection.getRemoteAddress(), e);
+                }
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Ошибка закрытия селектора " + thread.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package ru.gb.java3.server.transport;
+
+import ru.gb.java3.clientserver.codec.CommandCodec;
+import ru.gb.java3.clientserver.codec.Frame;
+import ru.gb.java3.server.client.ClientHandler;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//неблокирующее соединение. чтение и запись в канал идут только в потоке своего EventLoop,
+//send() можно звать из любого потока - кадр просто встает в ограниченную очередь
+class NioConnection implements ClientConnection {
+    private static final Logger logger = Logger.getLogger(NioConnection.class.getName());
+    private static final int INITIAL_READ_BUFFER = 8 * 1024;
+    //сколько кадров отдавать в канал одним системным вызовом
+    private static final int MAX_WRITE_BATCH = 16;
+    //сколько ждать дописывания очереди при мягком закрытии
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final OutboundQueue queue;
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private final String remoteAddress;
+    private final InetAddress remoteHost;
+    private final ByteBuffer[] writeBatch = new ByteBuffer[MAX_WRITE_BATCH];
+    private int batchOffset;
+    private int batchLength;
+    private SelectionKey key;
+    private ClientHandler handler;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+    private volatile boolean closed;
+
+    NioConnection(EventLoop loop, SocketChannel channel, OutboundQueue queue) {
+        this.loop = loop;
+        this.channel = channel;
+        this.queue = queue;
+        SocketAddress address;
+        try {
+            address = channel.getRemoteAddress();
+        } catch (IOException e) {
+            address = null;
+        }
+        this.remoteAddress = address == null ? "unknown" : address.toString();
+        this.remoteHost = address instanceof InetSocketAddress ? ((InetSocketAddress) address).getAddress() : null;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    void setHandler(ClientHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void send(Frame frame) {
+        if (closed) {
+            return;
+        }
+        if (!queue.offer(frame)) {
+            abort();
+            return;
+        }
+        scheduleWrite();
+    }
+
+    private void scheduleWrite() {
+        if (writeScheduled.compareAndSet(false, true)) {
+            loop.scheduleWrite(this);
+        }
+    }
+
+    void flush() {
+        writeScheduled.set(false);
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            while (true) {
+                if (batchLength == 0 && !fillBatch()) {
+                    break;
+                }
+                channel.write(writeBatch, batchOffset, batchLength);
+                while (batchLength > 0 && !writeBatch[batchOffset].hasRemaining()) {
+                    writeBatch[batchOffset++] = null;
+                    batchLength--;
+                }
+                if (batchLength > 0) {
+                    //буфер отправки сокета полон - дописываем по OP_WRITE
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closed) {
+                closeChannel();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            closeChannel();
+            handler.closeConnection();
+        }
+    }
+
+    private boolean fillBatch() {
+        batchOffset = 0;
+        Frame frame;
+        while (batchLength < MAX_WRITE_BATCH && (frame = queue.poll()) != null) {
+            writeBatch[batchLength++] = frame.asByteBuffer();
+        }
+        return batchLength > 0;
+    }
+
+    void onReadable() {
+        try {
+            if (channel.read(readBuffer) < 0) {
+                handler.closeConnection();
+                return;
+            }
+            readBuffer.flip();
+            int required = readFrames();
+            readBuffer.compact();
+            if (required > readBuffer.capacity()) {
+                ByteBuffer bigger = ByteBuffer.allocate(required);
+                readBuffer.flip();
+                bigger.put(readBuffer);
+                readBuffer = bigger;
+            }
+        } catch (IOException e) {
+            handler.closeConnection();
+        }
+    }
+
+    //разбирает все целые кадры из буфера, возвращает размер недочитанного кадра.
+    //тело декодируется прямо из массива буфера, без промежуточной копии
+    private int readFrames() throws IOException {
+        while (!closed && readBuffer.hasRemaining()) {
+            int length = CommandCodec.peekBodyLength(readBuffer);
+            if (length < 0) {
+                return CommandCodec.MAX_HEADER_LENGTH;
+            }
+            int headerLength = CommandCodec.headerLength(length);
+            int frameLength = headerLength + length;
+            if (readBuffer.remaining() < frameLength) {
+                return frameLength;
+            }
+            int bodyStart = readBuffer.position() + headerLength;
+            readBuffer.position(bodyStart + length);
+            handler.onFrame(readBuffer.array(), readBuffer.arrayOffset() + bodyStart, length);
+        }
+        return 0;
+    }
+
+    //мягкое закрытие: канал закроется, когда очередь будет дописана.
+    //клиент, который перестал читать, получает на это CLOSE_TIMEOUT_SECONDS
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        scheduleWrite();
+        loop.schedule(() -> {
+            if (channel.isOpen()) {
+                queue.clear();
+                closeChannel();
+            }
+        }, CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    //немедленное закрытие в потоке цикла после ошибки обработки
+    void terminate() {
+        closed = true;
+        queue.clear();
+        closeChannel();
+        if (handler != null) {
+            handler.closeConnection();
+        }
+    }
+
+    //клиент не успевает читать. отписка идет в потоке цикла, а не у отправителя,
+    //который сейчас может быть посреди рассылки
+    private void abort() {
+        closed = true;
+        queue.clear();
+        loop.execute(() -> {
+            closeChannel();
+            handler.closeConnection();
+        });
+    }
+
+    private void closeChannel() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Ошибка закрытия канала " + remoteAddress, e);
+        }
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public InetAddress getRemoteHost() {
+        return remoteHost;
+    }
+}
@@ -0,0 +1,163 @@
+package ru.gb.java3.server.transport;
+
+import ru.gb.java3.clientserver.Command;
+import ru.gb.java3.clientserver.CommandType;
+import ru.gb.java3.clientserver.codec.Frame;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantLock;
+
+//ограниченная очередь исходящих кадров одного клиента.
+//кладут в нее любые потоки, забирает только писатель этого соединения
+public class OutboundQueue {
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long droppedFrames;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+    }
+
+    //false - очередь переполнена и клиента надо отключить
+    public boolean offer(Frame frame) {
+        lock.lock();
+        try {
+            if (policy == OverflowPolicy.COALESCE_PRESENCE) {
+                frame = coalesce(frame);
+                if (frame == null) {
+                    return true; //изменение погасило неотправленное, отправлять нечего
+                }
+            }
+            if (frames.size() >= capacity) {
+                if (policy == OverflowPolicy.DISCONNECT || !dropOldest()) {
+                    return false;
+                }
+                droppedFrames++;
+            }
+            frames.addLast(frame);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //выкидывается самый старый кадр, который можно потерять. false - в очереди только незаменимые
+    private boolean dropOldest() {
+        Iterator<Frame> iterator = frames.iterator();
+        while (iterator.hasNext()) {
+            if (!isEssential(iterator.next().getType())) {
+                iterator.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //ответ на вход, снимок состава чата и его изменения приходят один раз и не повторяются:
+    //без любого из них состояние у клиента разойдется с сервером навсегда
+    private static boolean isEssential(CommandType type) {
+        switch (type) {
+            case AUTH:
+            case CAPABILITIES:
+            case CHANGE_NICK:
+            case UPDATE_USER_LIST:
+            case USER_JOINED:
+            case USER_LEFT:
+            case USER_RENAMED:
+            case ROOM_JOIN:
+            case ROOM_LEAVE:
+            case ROOM_MEMBERS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    //изменение состава сливается с еще не отправленным изменением того же ника: вход и выход
+    //гасят друг друга, цепочка смен ника сворачивается в одну. при шторме переподключений
+    //очередь медленного клиента не копит пары "вошел-вышел". null - отправлять нечего
+    private Frame coalesce(Frame frame) {
+        CommandType type = frame.getType();
+        String nick = type == CommandType.USER_RENAMED ? frame.getOldNick() : frame.getNick();
+        Frame previous = nick == null ? null : lastMention(nick);
+        if (previous == null) {
+            return frame;
+        }
+        CommandType previousType = previous.getType();
+        Frame merged;
+        if (type == CommandType.USER_JOINED && previousType == CommandType.USER_LEFT
+                || type == CommandType.USER_LEFT && previousType == CommandType.USER_JOINED) {
+            merged = null;
+        } else if (type == CommandType.USER_LEFT && previousType == CommandType.USER_RENAMED && nick.equals(previous.getNick())) {
+            merged = Frame.encode(Command.userLeftCommand(previous.getOldNick()));
+        } else if (type == CommandType.USER_RENAMED && previousType == CommandType.USER_JOINED) {
+            merged = Frame.encode(Command.userJoinedCommand(frame.getNick()));
+        } else if (type == CommandType.USER_RENAMED && previousType == CommandType.USER_RENAMED && nick.equals(previous.getNick())) {
+            //ник, вернувшийся к прежнему, не менялся вовсе
+            merged = previous.getOldNick().equals(frame.getNick()) ? null
+                    : Frame.encode(Command.userRenamedCommand(previous.getOldNick(), frame.getNick()));
+        } else {
+            return frame; //такие пары не сливаются
+        }
+        frames.removeLastOccurrence(previous);
+        droppedFrames++;
+        //слитое изменение может сойтись с еще более ранним, например вход A, выход B, смена A на B
+        return merged == null ? null : coalesce(merged);
+    }
+
+    //последнее неотправленное изменение, где встречается nick. кадры до неотправленного
+    //снимка списка не трогаются: клиент применит их к старому списку, а не к снимку
+    private Frame lastMention(String nick) {
+        Iterator<Frame> iterator = frames.descendingIterator();
+        while (iterator.hasNext()) {
+            Frame queued = iterator.next();
+            if (queued.getType() == CommandType.UPDATE_USER_LIST) {
+                return null;
+            }
+            if (nick.equals(queued.getNick()) || nick.equals(queued.getOldNick())) {
+                return queued;
+            }
+        }
+        return null;
+    }
+
+    public Frame poll() {
+        lock.lock();
+        try {
+            return frames.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return frames.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            frames.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedFrames() {
+        lock.lock();
+        try {
+            return droppedFrames;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package ru.gb.java3.server.transport;
+
+//что делать, когда исходящая очередь медленного клиента заполнена
+public enum OverflowPolicy {
+    DROP_OLDEST,        //выкинуть самый старый кадр, кроме незаменимых; если выкинуть нечего - отключить
+    DISCONNECT,         //отключить клиента, который не успевает читать
+    COALESCE_PRESENCE;  //вход и выход одного ника гасят друг друга, смены ника сворачиваются; при переполнении как DROP_OLDEST
+
+    public static OverflowPolicy parse(String value, OverflowPolicy defaultPolicy) {
+        if (value == null) {
+            return defaultPolicy;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Неизвестная политика переполнения " + value + ". Будет использоваться " + defaultPolicy);
+            return defaultPolicy;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ru.gb.java3.server.transport;
+
+import ru.gb.java3.server.NetworkServer;
+import ru.gb.java3.server.client.ClientHandler;
+import ru.gb.java3.server.timer.HashedWheelTimer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//неблокирующий транспорт: текущий поток принимает подключения,
+//а чтение, разбор кадров и запись для всех клиентов делают workerCount циклов событий
+public class ReactorTransport {
+    private static final Logger logger = Logger.getLogger(ReactorTransport.class.getName());
+    private final NetworkServer networkServer;
+    private final int port;
+    private final EventLoop[] workers;
+    private int nextWorker;
+
+    public ReactorTransport(NetworkServer networkServer, int port, int workerCount) {
+        this.networkServer = networkServer;
+        this.port = port;
+        this.workers = new EventLoop[Math.max(1, workerCount)];
+    }
+
+    public void run() throws IOException {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open();
+             Selector selector = Selector.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            startWorkers();
+            logger.log(Level.INFO, "Сервер был успешно создан. Порт: {0,number,#}, циклов событий: {1}", new Object[]{port, workers.length});
+
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        acceptAll(serverChannel);
+                    }
+                }
+            }
+        } finally {
+            stopWorkers();
+        }
+    }
+
+    private void startWorkers() throws IOException {
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new EventLoop(this, "reactor-worker-" + i);
+            workers[i].start();
+        }
+    }
+
+    private void stopWorkers() {
+        for (EventLoop worker : workers) {
+            if (worker != null) {
+                worker.stop();
+            }
+        }
+    }
+
+    private void acceptAll(ServerSocketChannel serverChannel) {
+        SocketChannel channel;
+        while (true) {
+            try {
+                channel = serverChannel.accept();
+                if (channel == null) {
+                    return;
+                }
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Не удалось принять подключение", e);
+                return;
+            }
+            //клиенты раздаются по циклам по кругу
+            workers[nextWorker].register(channel);
+            nextWorker = (nextWorker + 1) % workers.length;
+        }
+    }
+
+    HashedWheelTimer getTimer() {
+        return networkServer.getTimer();
+    }
+
+    OutboundQueue newOutboundQueue() {
+        return networkServer.newOutboundQueue();
+    }
+
+    //вызывается в потоке цикла, которому достался канал
+    void onConnected(NioConnection connection) {
+        if (logger.isLoggable(Level.INFO)) {
+            logger.log(Level.INFO, "Клиент подключился {0}", connection.getRemoteAddress());
+        }
+        ClientHandler clientHandler = new ClientHandler(networkServer, connection);
+        connection.setHandler(clientHandler);
+        clientHandler.goNonBlocking();
+    }
+}
@@ -0,0 +1,19 @@
+package ru.gb.java3.server.transport;
+
+public enum ServerMode {
+    BLOCKING, //поток на чтение каждого клиента
+    REACTOR,  //один поток приема + несколько циклов событий на Selector
+    VIRTUAL;  //виртуальный поток на чтение каждого клиента
+
+    public static ServerMode parse(String value, ServerMode defaultMode) {
+        if (value == null) {
+            return defaultMode;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Неизвестный режим сервера " + value + ". Будет использоваться " + defaultMode);
+            return defaultMode;
+        }
+    }
+}
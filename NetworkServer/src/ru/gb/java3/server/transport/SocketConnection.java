@@ -0,0 +1,126 @@
+package ru.gb.java3.server.transport;
+
+import ru.gb.java3.clientserver.Command;
+import ru.gb.java3.clientserver.codec.CommandCodec;
+import ru.gb.java3.clientserver.codec.Frame;
+import ru.gb.java3.server.timer.HashedWheelTimer;
+import ru.gb.java3.server.timer.Timeout;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//блокирующее соединение поверх обычного сокета.
+//send() только кладет кадр в очередь, в сокет пишет задача в writerExecutor,
+//поэтому отправитель никогда не ждет чужой сокет. запись, не закончившаяся за writeTimeoutMillis,
+//закрывает сокет: поток пула не висит на клиенте, который перестал читать
+public class SocketConnection implements ClientConnection {
+    //маленький буфер: простаивающих соединений могут быть десятки тысяч
+    private static final int READ_BUFFER_SIZE = 1024;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final Executor writerExecutor;
+    private final OutboundQueue queue;
+    private final HashedWheelTimer timer;
+    private final long writeTimeoutMillis;
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private volatile boolean closed;
+
+    public SocketConnection(Socket socket, Executor writerExecutor, OutboundQueue queue,
+                            HashedWheelTimer timer, long writeTimeoutMillis) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), READ_BUFFER_SIZE));
+        //кадр пишется одним вызовом, буферизовать выход незачем
+        this.out = socket.getOutputStream();
+        this.writerExecutor = writerExecutor;
+        this.queue = queue;
+        this.timer = timer;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    public Command readCommand() throws IOException {
+        return CommandCodec.read(in);
+    }
+
+    @Override
+    public void send(Frame frame) {
+        if (closed) {
+            return;
+        }
+        if (!queue.offer(frame)) {
+            //клиент не успевает читать: закрытый сокет разбудит его поток чтения, тот отпишет клиента
+            abort();
+            return;
+        }
+        scheduleWrite();
+    }
+
+    private void scheduleWrite() {
+        if (writeScheduled.compareAndSet(false, true)) {
+            try {
+                writerExecutor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                abort();
+            }
+        }
+    }
+
+    //в каждый момент работает не больше одной такой задачи на соединение
+    private void drain() {
+        Timeout deadline = timer.newTimeout(this::abort, writeTimeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            Frame frame;
+            while ((frame = queue.poll()) != null) {
+                frame.writeTo(out);
+            }
+        } catch (IOException e) {
+            abort();
+            return;
+        } finally {
+            deadline.cancel();
+        }
+        writeScheduled.set(false);
+        if (!queue.isEmpty()) {
+            scheduleWrite();
+        } else if (closed) {
+            closeSocket();
+        }
+    }
+
+    //мягкое закрытие: то, что уже в очереди, будет дописано
+    @Override
+    public void close() {
+        closed = true;
+        scheduleWrite();
+    }
+
+    private void abort() {
+        closed = true;
+        queue.clear();
+        closeSocket();
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return String.valueOf(socket.getRemoteSocketAddress());
+    }
+
+    @Override
+    public InetAddress getRemoteHost() {
+        return socket.getInetAddress();
+    }
+}
@@ -0,0 +1,38 @@
+package ru.gb.java3.server.transport;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//проект собирается под java 8, поэтому виртуальные потоки (java 21+) берутся через reflection.
+//на старой JVM будет обычный кэширующий пул, чтобы режим хотя бы запускался
+public class VirtualThreads {
+    private static final Logger logger = Logger.getLogger(VirtualThreads.class.getName());
+
+    private VirtualThreads() {
+    }
+
+    //поток на задачу, каждый поток именуется prefix + номер
+    public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method executor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) executor.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            logger.log(Level.WARNING, "Виртуальные потоки недоступны, используется обычный пул потоков");
+            AtomicLong counter = new AtomicLong();
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, prefix + counter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
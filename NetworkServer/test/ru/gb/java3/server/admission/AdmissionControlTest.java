@@ -0,0 +1,80 @@
+package ru.gb.java3.server.admission;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControlTest {
+
+    @Test
+    public void sessionsAreLimited() {
+        AdmissionControl admission = new AdmissionControl(2, 5, 60, 10);
+        assertTrue(admission.tryAdmitSession());
+        assertTrue(admission.tryAdmitSession());
+        assertFalse(admission.tryAdmitSession());
+        assertEquals(1, admission.getRejectedSessions());
+
+        admission.releaseSession();
+        assertTrue(admission.tryAdmitSession());
+        assertEquals(2, admission.getUnauthenticatedSessions());
+    }
+
+    @Test
+    public void zeroLimitAdmitsEveryone() {
+        AdmissionControl admission = new AdmissionControl(0, 5, 60, 10);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(admission.tryAdmitSession());
+        }
+        assertEquals(1000, admission.getUnauthenticatedSessions());
+        assertEquals(0, admission.getRejectedSessions());
+    }
+
+    //одна попытка в минуту: после исчерпания burst ждать до минуты, округление вверх
+    @Test
+    public void authAttemptsAreThrottledPerAddress() throws UnknownHostException {
+        AdmissionControl admission = new AdmissionControl(0, 2, 1, 10);
+        InetAddress first = InetAddress.getByName("10.0.0.1");
+        InetAddress second = InetAddress.getByName("10.0.0.2");
+
+        assertEquals(0, admission.tryAuthAttempt(first));
+        assertEquals(0, admission.tryAuthAttempt(first));
+        int retry = admission.tryAuthAttempt(first);
+        assertTrue("повтор через " + retry + " с", retry > 55 && retry <= 60);
+        assertEquals(1, admission.getRejectedAuths());
+
+        assertEquals(0, admission.tryAuthAttempt(second));
+    }
+
+    //соединение без адреса (встроенный транспорт, замеры) не ограничивается
+    @Test
+    public void unknownAddressIsNotThrottled() {
+        AdmissionControl admission = new AdmissionControl(0, 1, 1, 10);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, admission.tryAuthAttempt(null));
+        }
+    }
+
+    //выбрасываются только восстановившиеся ведра: ограничение адреса после чистки не сбрасывается
+    @Test
+    public void evictionKeepsThrottledAddresses() throws UnknownHostException {
+        AdmissionControl admission = new AdmissionControl(0, 1, 1, 10);
+        InetAddress address = InetAddress.getByName("10.0.0.3");
+        assertEquals(0, admission.tryAuthAttempt(address));
+        assertTrue(admission.tryAuthAttempt(address) > 0);
+
+        admission.evictIdleBuckets();
+        assertTrue(admission.tryAuthAttempt(address) > 0);
+    }
+
+    @Test
+    public void sessionRetryIsJitteredWithinRange() {
+        AdmissionControl admission = new AdmissionControl(1, 1, 1, 10);
+        for (int i = 0; i < 200; i++) {
+            int retry = admission.sessionRetryAfterSeconds();
+            assertTrue("повтор через " + retry + " с", retry >= 10 && retry <= 20);
+        }
+    }
+}
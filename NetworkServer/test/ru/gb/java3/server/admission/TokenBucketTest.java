@@ -0,0 +1,58 @@
+package ru.gb.java3.server.admission;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+//время передается явно, так что ведро проверяется без sleep
+public class TokenBucketTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void burstThenWait() {
+        TokenBucket bucket = new TokenBucket(3, SECOND, 0);
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(SECOND, bucket.tryAcquire(0));
+    }
+
+    @Test
+    public void refillsOneTokenPerPeriod() {
+        TokenBucket bucket = new TokenBucket(1, SECOND, 0);
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(SECOND / 2, bucket.tryAcquire(SECOND / 2));
+        assertEquals(0, bucket.tryAcquire(SECOND));
+        assertTrue(bucket.tryAcquire(SECOND) > 0);
+    }
+
+    //долгий простой не копит жетоны сверх емкости
+    @Test
+    public void refillIsCappedByCapacity() {
+        TokenBucket bucket = new TokenBucket(2, SECOND, 0);
+        bucket.tryAcquire(0);
+        bucket.tryAcquire(0);
+        long later = 100 * SECOND;
+        assertEquals(0, bucket.tryAcquire(later));
+        assertEquals(0, bucket.tryAcquire(later));
+        assertEquals(SECOND, bucket.tryAcquire(later));
+    }
+
+    //время, ушедшее назад (другой поток прочитал nanoTime раньше), ведро не портит
+    @Test
+    public void earlierTimestampIsIgnored() {
+        TokenBucket bucket = new TokenBucket(1, SECOND, 10 * SECOND);
+        assertEquals(0, bucket.tryAcquire(10 * SECOND));
+        assertEquals(SECOND, bucket.tryAcquire(5 * SECOND));
+        assertEquals(0, bucket.tryAcquire(11 * SECOND));
+    }
+
+    @Test
+    public void fullOnlyAfterCompleteRefill() {
+        TokenBucket bucket = new TokenBucket(2, SECOND, 0);
+        assertTrue(bucket.isFull(0));
+        bucket.tryAcquire(0);
+        assertFalse(bucket.isFull(SECOND / 2));
+        assertTrue(bucket.isFull(SECOND));
+    }
+}
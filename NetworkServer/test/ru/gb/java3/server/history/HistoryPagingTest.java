@@ -0,0 +1,131 @@
+package ru.gb.java3.server.history;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+//страницы истории поверх нескольких сегментов: опорные точки, фильтр и предел просмотра
+public class HistoryPagingTest {
+    private static final int MESSAGES = 1000;
+
+    private Path directory;
+    private MessageLog log;
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        directory = Files.createTempDirectory("history-paging-test");
+        log = new MessageLog(directory.toString(), 8192, 0, 0, false, 65536);
+        log.start();
+        //каждое десятое - приват nick1 -> nick2, остальное - общий чат
+        for (int i = 1; i <= MESSAGES; i++) {
+            if (i % 10 == 0) {
+                log.append(1, "nick1", 2, "nick2", "private " + i);
+            } else {
+                log.append(1, "nick1", StoredMessage.BROADCAST, null, "public " + i);
+            }
+        }
+        MessageLogTest.awaitCommitted(log, MESSAGES);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        log.stop();
+        MessageLogTest.deleteDirectory(directory);
+    }
+
+    @Test
+    public void latestPageWithoutAnchor() {
+        HistoryPage page = log.readPage(message -> true, 0, 0, true, 50);
+        List<StoredMessage> messages = page.getMessages();
+        assertEquals(50, messages.size());
+        assertEquals(951, messages.get(0).getId());
+        assertEquals(MESSAGES, messages.get(49).getId());
+        assertEquals(951, page.getNextAnchorId());
+    }
+
+    //листание назад проходит все сегменты без пропусков и повторов и кончается нулевой опорой
+    @Test
+    public void olderPagesCoverWholeLog() {
+        List<StoredMessage> all = MessageLogTest.readAll(log);
+        assertEquals(MESSAGES, all.size());
+        for (int i = 0; i < MESSAGES; i++) {
+            assertEquals(i + 1, all.get(i).getId());
+        }
+    }
+
+    @Test
+    public void newerPageStartsAfterAnchor() {
+        HistoryPage page = log.readPage(message -> true, 500, 0, false, 3);
+        List<StoredMessage> messages = page.getMessages();
+        assertEquals(3, messages.size());
+        assertEquals(501, messages.get(0).getId());
+        assertEquals(503, messages.get(2).getId());
+        assertEquals(503, page.getNextAnchorId());
+
+        HistoryPage tail = log.readPage(message -> true, MESSAGES - 2, 0, false, 10);
+        assertEquals(2, tail.getMessages().size());
+        assertEquals(0, tail.getNextAnchorId());
+    }
+
+    @Test
+    public void olderPageBeforeFirstMessageIsEmpty() {
+        HistoryPage page = log.readPage(message -> true, 1, 0, true, 10);
+        assertTrue(page.getMessages().isEmpty());
+        assertEquals(0, page.getNextAnchorId());
+    }
+
+    @Test
+    public void filterSelectsConversation() {
+        Predicate<StoredMessage> privates = message -> !message.isBroadcast();
+        HistoryPage page = log.readPage(privates, 0, 0, true, 5);
+        List<StoredMessage> messages = page.getMessages();
+        assertEquals(5, messages.size());
+        assertEquals(960, messages.get(0).getId());
+        assertEquals(MESSAGES, messages.get(4).getId());
+        for (StoredMessage message : messages) {
+            assertEquals("nick2", message.getReceiverNick());
+        }
+    }
+
+    //опора по времени: страница до момента и после него
+    @Test
+    public void anchorByTime() throws InterruptedException {
+        Thread.sleep(20);
+        long boundary = System.currentTimeMillis();
+        Thread.sleep(20);
+        long after = log.append(3, "nick3", StoredMessage.BROADCAST, null, "после границы");
+        MessageLogTest.awaitCommitted(log, after);
+
+        List<StoredMessage> before = log.readPage(message -> true, 0, boundary, true, 1).getMessages();
+        assertEquals(1, before.size());
+        assertEquals(MESSAGES, before.get(0).getId());
+
+        List<StoredMessage> newer = log.readPage(message -> true, 0, boundary, false, 10).getMessages();
+        assertEquals(1, newer.size());
+        assertEquals(after, newer.get(0).getId());
+    }
+
+    //редкий собеседник не заставляет читать журнал целиком: страница обрывается
+    //на пределе просмотра и отдает опору, с которой продолжить
+    @Test
+    public void scanLimitReturnsContinuationAnchor() throws InterruptedException {
+        long last = 0;
+        for (int i = 0; i < 25000; i++) {
+            last = log.append(1, "nick1", StoredMessage.BROADCAST, null, "filler");
+        }
+        MessageLogTest.awaitCommitted(log, last);
+
+        HistoryPage page = log.readPage(message -> "nobody".equals(message.getReceiverNick()), 0, 0, true, 10);
+        assertTrue(page.getMessages().isEmpty());
+        assertTrue(page.getNextAnchorId() > 0);
+        assertTrue(page.getNextAnchorId() < last);
+    }
+}
@@ -0,0 +1,205 @@
+package ru.gb.java3.server.history;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class MessageLogTest {
+    private Path directory;
+    private MessageLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("message-log-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (log != null) {
+            log.stop();
+        }
+        deleteDirectory(directory);
+    }
+
+    @Test
+    public void idsIncreaseAndReachDisk() throws InterruptedException {
+        log = open(1024 * 1024, 0);
+        long first = log.append(1, "nick1", StoredMessage.BROADCAST, null, "первое");
+        long second = log.append(2, "nick2", 1, "nick1", "второе");
+        assertEquals(1, first);
+        assertEquals(2, second);
+
+        awaitCommitted(log, second);
+        List<StoredMessage> all = readAll(log);
+        assertEquals(2, all.size());
+        StoredMessage message = all.get(1);
+        assertEquals(2, message.getSenderId());
+        assertEquals("nick2", message.getSenderNick());
+        assertEquals(1, message.getReceiverId());
+        assertEquals("nick1", message.getReceiverNick());
+        assertEquals("второе", message.getText());
+        assertTrue(all.get(0).isBroadcast());
+        assertNull(all.get(0).getReceiverNick());
+    }
+
+    //stop дописывает все, что уже принято append
+    @Test
+    public void stopFlushesPendingAndReopenContinuesIds() {
+        log = open(1024 * 1024, 0);
+        for (int i = 0; i < 500; i++) {
+            log.append(1, "nick1", StoredMessage.BROADCAST, null, "m" + i);
+        }
+        log.stop();
+        assertEquals(-1, log.append(1, "nick1", StoredMessage.BROADCAST, null, "после остановки"));
+
+        log = open(1024 * 1024, 0);
+        assertEquals(500, log.getCommittedId());
+        assertEquals(501, log.append(1, "nick1", StoredMessage.BROADCAST, null, "m500"));
+    }
+
+    //запись оборвалась на середине: хвост отрезается, id продолжаются с последней целой записи
+    @Test
+    public void tornTailIsTruncatedOnRecovery() throws IOException {
+        log = open(1024 * 1024, 0);
+        for (int i = 0; i < 10; i++) {
+            log.append(1, "nick1", StoredMessage.BROADCAST, null, "m" + i);
+        }
+        log.stop();
+        Path segment = lastSegment();
+        long goodSize = Files.size(segment);
+        appendBytes(segment, new byte[]{0, 0, 0, 100, 1, 2, 3, 4, 5, 6});
+
+        log = open(1024 * 1024, 0);
+        assertEquals(10, log.getCommittedId());
+        assertEquals(goodSize, Files.size(segment));
+        assertEquals(11, log.append(1, "nick1", StoredMessage.BROADCAST, null, "после сбоя"));
+    }
+
+    //испорченная контрольная сумма последней записи - запись не признается
+    @Test
+    public void corruptedLastRecordIsDropped() throws IOException {
+        log = open(1024 * 1024, 0);
+        for (int i = 0; i < 10; i++) {
+            log.append(1, "nick1", StoredMessage.BROADCAST, null, "m" + i);
+        }
+        log.stop();
+        Path segment = lastSegment();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), channel.size() - 1);
+        }
+
+        log = open(1024 * 1024, 0);
+        assertEquals(9, log.getCommittedId());
+        List<StoredMessage> all = readAll(log);
+        assertEquals(9, all.size());
+        assertEquals("m8", all.get(8).getText());
+    }
+
+    @Test
+    public void segmentsRollAndReadInOrder() throws IOException, InterruptedException {
+        log = open(4096, 0);
+        for (int i = 1; i <= 1000; i++) {
+            log.append(1, "nick1", StoredMessage.BROADCAST, null, "message " + i);
+        }
+        awaitCommitted(log, 1000);
+        assertTrue("сегментов: " + segmentCount(), segmentCount() > 5);
+
+        List<StoredMessage> all = readAll(log);
+        assertEquals(1000, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(i + 1, all.get(i).getId());
+        }
+    }
+
+    //старые сегменты сверх maxSegments удаляются, текущий остается
+    @Test
+    public void retentionByCountKeepsNewestSegments() throws IOException, InterruptedException {
+        log = open(4096, 3);
+        for (int i = 1; i <= 1000; i++) {
+            log.append(1, "nick1", StoredMessage.BROADCAST, null, "message " + i);
+        }
+        awaitCommitted(log, 1000);
+        assertTrue("сегментов: " + segmentCount(), segmentCount() <= 3);
+
+        List<StoredMessage> retained = readAll(log);
+        assertFalse(retained.isEmpty());
+        assertEquals(1000, retained.get(retained.size() - 1).getId());
+        assertTrue(retained.get(0).getId() > 1);
+    }
+
+    private MessageLog open(long segmentBytes, int maxSegments) {
+        MessageLog opened = new MessageLog(directory.toString(), segmentBytes, 0, maxSegments, false, 65536);
+        opened.start();
+        return opened;
+    }
+
+    //все сообщения журнала от старых к новым, страницами с конца
+    static List<StoredMessage> readAll(MessageLog log) {
+        List<StoredMessage> all = new ArrayList<>();
+        long anchor = 0;
+        do {
+            HistoryPage page = log.readPage(message -> true, anchor, 0, true, 100);
+            all.addAll(0, page.getMessages());
+            anchor = page.getNextAnchorId();
+        } while (anchor > 0);
+        return all;
+    }
+
+    //каталог теста вместе с содержимым
+    static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    static void awaitCommitted(MessageLog log, long id) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (log.getCommittedId() < id) {
+            assertTrue("запись не дошла до id " + id, System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private Path lastSegment() throws IOException {
+        Path last = null;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + LogSegment.SUFFIX)) {
+            for (Path file : files) {
+                if (last == null || LogSegment.parseBaseId(file) > LogSegment.parseBaseId(last)) {
+                    last = file;
+                }
+            }
+        }
+        return last;
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> LogSegment.parseBaseId(file) > 0).count();
+        }
+    }
+
+    private static void appendBytes(Path file, byte[] bytes) throws IOException {
+        Files.write(file, bytes, StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,61 @@
+package ru.gb.java3.server.history;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SparseIndexTest {
+
+    @Test
+    public void emptyIndexHasNoFloor() {
+        SparseIndex index = new SparseIndex();
+        assertEquals(0, index.size());
+        assertEquals(-1, index.floorById(100));
+        assertEquals(-1, index.floorByTime(100));
+    }
+
+    @Test
+    public void floorFindsLastEntryNotAboveTarget() {
+        SparseIndex index = new SparseIndex();
+        index.add(1, 1000, 0);
+        index.add(33, 2000, 4096);
+        index.add(65, 3000, 8192);
+
+        assertEquals(-1, index.floorById(0));
+        assertEquals(0, index.floorById(1));
+        assertEquals(0, index.floorById(32));
+        assertEquals(1, index.floorById(33));
+        assertEquals(2, index.floorById(Long.MAX_VALUE));
+
+        assertEquals(-1, index.floorByTime(999));
+        assertEquals(1, index.floorByTime(2999));
+        assertEquals(2, index.floorByTime(3000));
+        assertEquals(8192, index.position(2));
+        assertEquals(33, index.id(1));
+        assertEquals(2000, index.time(1));
+    }
+
+    //емкость растет без потери уже добавленных точек
+    @Test
+    public void growsBeyondInitialCapacity() {
+        SparseIndex index = new SparseIndex();
+        for (int i = 0; i < 1000; i++) {
+            index.add(1 + i * SparseIndex.INTERVAL, i * 10L, i * 4096L);
+        }
+        assertEquals(1000, index.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, index.floorById(1 + i * SparseIndex.INTERVAL + 5));
+            assertEquals(i * 4096L, index.position(i));
+        }
+    }
+
+    //одинаковое время у соседних точек: берется последняя
+    @Test
+    public void equalTimesResolveToLastEntry() {
+        SparseIndex index = new SparseIndex();
+        index.add(1, 500, 0);
+        index.add(33, 500, 100);
+        index.add(65, 500, 200);
+        assertEquals(2, index.floorByTime(500));
+    }
+}
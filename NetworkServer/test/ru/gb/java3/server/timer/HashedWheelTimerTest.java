@@ -0,0 +1,119 @@
+package ru.gb.java3.server.timer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+//колесо из 8 ячеек по 5 мс: полный оборот 40 мс, так что длинные сроки проходят несколько оборотов
+public class HashedWheelTimerTest {
+    private static final long TICK_MILLIS = 5;
+
+    private HashedWheelTimer timer;
+
+    @Before
+    public void setUp() {
+        timer = new HashedWheelTimer("test-timer", TICK_MILLIS, TimeUnit.MILLISECONDS, 8);
+        timer.start();
+    }
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void taskRunsNotEarlierThanOneTickBeforeDeadline() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        Timeout timeout = timer.newTimeout(fired::countDown, 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("сработал через " + elapsedMillis + " мс", elapsedMillis >= 50 - TICK_MILLIS);
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+    }
+
+    //срок в несколько оборотов колеса не срабатывает на первом проходе своей ячейки
+    @Test
+    public void deadlineBeyondOneRotationWaitsForRemainingRounds() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        timer.newTimeout(fired::countDown, 130, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("сработал через " + elapsedMillis + " мс", elapsedMillis >= 130 - TICK_MILLIS);
+    }
+
+    @Test
+    public void cancelledTaskNeverRuns() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        Timeout timeout = timer.newTimeout(runs::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+
+        Thread.sleep(120);
+        assertEquals(0, runs.get());
+        assertFalse(timeout.isExpired());
+        assertEquals(0, timer.getPendingTimeouts());
+    }
+
+    //отмена уже перенесенного в колесо таймаута убирает его из ячейки
+    @Test
+    public void cancelAfterTransferToWheel() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        Timeout timeout = timer.newTimeout(runs::incrementAndGet, 200, TimeUnit.MILLISECONDS);
+        Thread.sleep(30);
+        assertTrue(timeout.cancel());
+
+        Thread.sleep(250);
+        assertEquals(0, runs.get());
+        assertEquals(0, timer.getPendingTimeouts());
+    }
+
+    @Test
+    public void overdueTaskRunsOnNextTick() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        timer.newTimeout(fired::countDown, 0, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(TICK_MILLIS * 20, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void manyTimeoutsAllFire() throws InterruptedException {
+        int count = 1000;
+        CountDownLatch fired = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            timer.newTimeout(fired::countDown, i % 100, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertEquals(0, timer.getPendingTimeouts());
+    }
+
+    //исключение одной задачи не останавливает поток таймера
+    @Test
+    public void failingTaskDoesNotStopTimer() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        timer.newTimeout(() -> {
+            throw new IllegalStateException("задача упала");
+        }, 5, TimeUnit.MILLISECONDS);
+        timer.newTimeout(fired::countDown, 30, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void stoppedTimerRunsNothing() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        timer.newTimeout(runs::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+        timer.stop();
+        Thread.sleep(80);
+        assertEquals(0, runs.get());
+    }
+}
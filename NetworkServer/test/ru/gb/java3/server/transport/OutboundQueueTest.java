@@ -0,0 +1,167 @@
+package ru.gb.java3.server.transport;
+
+import org.junit.Test;
+import ru.gb.java3.clientserver.Command;
+import ru.gb.java3.clientserver.CommandType;
+import ru.gb.java3.clientserver.codec.Frame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OutboundQueueTest {
+
+    @Test
+    public void framesLeaveInOrder() {
+        OutboundQueue queue = new OutboundQueue(4, OverflowPolicy.DISCONNECT);
+        Frame first = message("1");
+        Frame second = message("2");
+        assertTrue(queue.offer(first));
+        assertTrue(queue.offer(second));
+        assertSame(first, queue.poll());
+        assertSame(second, queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void disconnectPolicyRejectsWhenFull() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DISCONNECT);
+        assertTrue(queue.offer(message("1")));
+        assertTrue(queue.offer(message("2")));
+        assertFalse(queue.offer(message("3")));
+        assertEquals(0, queue.getDroppedFrames());
+    }
+
+    @Test
+    public void dropOldestMakesRoomForNewFrame() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST);
+        Frame second = message("2");
+        Frame third = message("3");
+        queue.offer(message("1"));
+        queue.offer(second);
+        assertTrue(queue.offer(third));
+        assertEquals(1, queue.getDroppedFrames());
+        assertSame(second, queue.poll());
+        assertSame(third, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    //изменения состава чата не выбрасываются, вместо них уходит самое старое обычное сообщение
+    @Test
+    public void dropOldestKeepsPresenceFrames() {
+        OutboundQueue queue = new OutboundQueue(3, OverflowPolicy.DROP_OLDEST);
+        queue.offer(Frame.encode(Command.userJoinedCommand("nick")));
+        queue.offer(message("1"));
+        queue.offer(Frame.encode(Command.updateUsersListCommand(Collections.singletonList("nick"))));
+        assertTrue(queue.offer(message("2")));
+
+        List<CommandType> types = new ArrayList<>();
+        for (Frame frame; (frame = queue.poll()) != null; ) {
+            types.add(frame.getType());
+        }
+        assertEquals(Arrays.asList(CommandType.USER_JOINED, CommandType.UPDATE_USER_LIST, CommandType.MESSAGE), types);
+    }
+
+    //выкинуть нечего - клиента придется отключить, а не терять снимок или изменения
+    @Test
+    public void dropOldestGivesUpWhenOnlyEssentialFramesQueued() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST);
+        queue.offer(Frame.encode(Command.userJoinedCommand("a")));
+        queue.offer(Frame.encode(Command.userLeftCommand("b")));
+        assertFalse(queue.offer(message("1")));
+        assertEquals(0, queue.getDroppedFrames());
+    }
+
+    //вход и выход одного ника, еще не отправленные, гасят друг друга
+    @Test
+    public void coalesceCancelsJoinAndLeave() {
+        OutboundQueue queue = new OutboundQueue(8, OverflowPolicy.COALESCE_PRESENCE);
+        queue.offer(Frame.encode(Command.userJoinedCommand("a")));
+        queue.offer(message("1"));
+        assertTrue(queue.offer(Frame.encode(Command.userLeftCommand("a"))));
+
+        assertEquals(CommandType.MESSAGE, queue.poll().getType());
+        assertNull(queue.poll());
+        assertEquals(1, queue.getDroppedFrames());
+    }
+
+    //шторм переподключений не копит кадры, даже если их больше, чем помещается в очередь
+    @Test
+    public void coalesceAbsorbsReconnectStorm() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.COALESCE_PRESENCE);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(queue.offer(Frame.encode(Command.userLeftCommand("a"))));
+            assertTrue(queue.offer(Frame.encode(Command.userJoinedCommand("a"))));
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void coalesceCollapsesRenameChain() {
+        OutboundQueue queue = new OutboundQueue(8, OverflowPolicy.COALESCE_PRESENCE);
+        queue.offer(Frame.encode(Command.userRenamedCommand("a", "b")));
+        queue.offer(Frame.encode(Command.userRenamedCommand("b", "c")));
+
+        Frame renamed = queue.poll();
+        assertEquals(CommandType.USER_RENAMED, renamed.getType());
+        assertEquals("a", renamed.getOldNick());
+        assertEquals("c", renamed.getNick());
+        assertNull(queue.poll());
+    }
+
+    //вход под одним ником и смена на другой - просто вход под новым; уход после смены - уход старого
+    @Test
+    public void coalesceFoldsRenameIntoJoinAndLeave() {
+        OutboundQueue queue = new OutboundQueue(8, OverflowPolicy.COALESCE_PRESENCE);
+        queue.offer(Frame.encode(Command.userJoinedCommand("a")));
+        queue.offer(Frame.encode(Command.userRenamedCommand("a", "b")));
+        Frame joined = queue.poll();
+        assertEquals(CommandType.USER_JOINED, joined.getType());
+        assertEquals("b", joined.getNick());
+
+        queue.offer(Frame.encode(Command.userRenamedCommand("c", "d")));
+        queue.offer(Frame.encode(Command.userLeftCommand("d")));
+        Frame left = queue.poll();
+        assertEquals(CommandType.USER_LEFT, left.getType());
+        assertEquals("c", left.getNick());
+        assertNull(queue.poll());
+    }
+
+    //изменения до снимка списка относятся к старому списку и не сливаются с последующими
+    @Test
+    public void coalesceStopsAtUserListSnapshot() {
+        OutboundQueue queue = new OutboundQueue(8, OverflowPolicy.COALESCE_PRESENCE);
+        queue.offer(Frame.encode(Command.userJoinedCommand("a")));
+        queue.offer(Frame.encode(Command.updateUsersListCommand(Collections.singletonList("a"))));
+        queue.offer(Frame.encode(Command.userLeftCommand("a")));
+
+        assertEquals(CommandType.USER_JOINED, queue.poll().getType());
+        assertEquals(CommandType.UPDATE_USER_LIST, queue.poll().getType());
+        assertEquals(CommandType.USER_LEFT, queue.poll().getType());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void clearEmptiesQueue() {
+        OutboundQueue queue = new OutboundQueue(4, OverflowPolicy.DROP_OLDEST);
+        queue.offer(message("1"));
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void parseFallsBackToDefault() {
+        assertEquals(OverflowPolicy.DISCONNECT, OverflowPolicy.parse(" disconnect ", OverflowPolicy.DROP_OLDEST));
+        assertEquals(OverflowPolicy.DROP_OLDEST, OverflowPolicy.parse(null, OverflowPolicy.DROP_OLDEST));
+        assertEquals(OverflowPolicy.DROP_OLDEST, OverflowPolicy.parse("unknown", OverflowPolicy.DROP_OLDEST));
+    }
+
+    private static Frame message(String text) {
+        return Frame.encode(Command.messageCommand("nick", text));
+    }
+}